@@ -1,4 +1,6 @@
 import java.util.Random;
+import java.util.concurrent.Flow;
+import java.util.stream.IntStream;
 
 /**
  * @author Duncan Grubbs
@@ -12,21 +14,27 @@ import java.util.Random;
  * as updating the grid according to the cellular automata
  * rules.
  */
-public class CellGrid {
+public class CellGrid implements World {
     public static final int GRID_SIZE = 500;
     public static int TIME = 0;
     public PerlinNoise noise;
 
-    private Cell[][] grid = new Cell[GRID_SIZE][GRID_SIZE];
+    private final int size;
+    private Cell[][] grid;
+    private final TickPublisher publisher = new TickPublisher();
+    private int time = 0;
 
     public CellGrid(int initialCellsToCreate) {
+        this.size = GRID_SIZE;
+        this.grid = new Cell[size][size];
+
         // Instantiate the Perlin Noise object with a new random
         // seed so that the terrain will be unique.
         int seed = new Random().nextInt(100);
         noise = new PerlinNoise(seed);
 
-        for (int i = 0; i < GRID_SIZE; i++) {
-            for (int j = 0; j < GRID_SIZE; j++) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
                 /*
                     Compute all of the initial state properties for
                     each cell before adding it into the grid.
@@ -35,8 +43,7 @@ public class CellGrid {
                     governing the automata.
                  */
                 Position p = this.computeCellPosition(i, j);
-                double elevation = noise.noise((double)i / 72.0, (double)j / 72.0);
-                elevation = map(elevation, -1.0, 1.0, 0, 255);
+                double elevation = computeCellElevation(noise, i, j);
 
                 CellState startState = new CellState(Biome.NONE, p, elevation);
                 this.grid[i][j] = new Cell(startState);
@@ -51,8 +58,8 @@ public class CellGrid {
             change. To begin with, only mountain and lake biomes are populated.
          */
         SimpleRandom simpleRandom = new SimpleRandom();
-        int[] xChoices = simpleRandom.randArray(initialCellsToCreate, 0, GRID_SIZE-1);
-        int[] yChoices = simpleRandom.randArray(initialCellsToCreate, 0, GRID_SIZE-1);
+        int[] xChoices = simpleRandom.randArray(initialCellsToCreate, 0, size-1);
+        int[] yChoices = simpleRandom.randArray(initialCellsToCreate, 0, size-1);
 
         for (int c = 0; c < initialCellsToCreate; c++) {
             double elevation = grid[xChoices[c]][yChoices[c]].getCurrentState().getElevation();
@@ -64,6 +71,53 @@ public class CellGrid {
         }
     }
 
+    /**
+     * Builds a reproducible grid of any size, seeded with
+     * exactly the given number of lakes and mountains (or as many
+     * as the terrain has room for). Instead of drawing random cells
+     * and keeping only the ones at a suitable elevation, the suitable
+     * cells are indexed once and the seeds drawn from them.
+     * @param size Width (and height) of the grid
+     * @param terrainSeed Seed for the terrain and for picking seed cells
+     * @param lakeSeeds Number of cells below 80 to start as LAKE
+     * @param mountainSeeds Number of cells above 180 to start as MOUNTAIN
+     */
+    public CellGrid(int size, int terrainSeed, int lakeSeeds, int mountainSeeds) {
+        this.size = size;
+        this.grid = new Cell[size][size];
+        noise = new PerlinNoise(terrainSeed);
+
+        // Rows are independent, so the terrain is generated in parallel
+        double[] elevations = new double[size * size];
+        IntStream.range(0, size).parallel().forEach(i -> {
+            for (int j = 0; j < size; j++) {
+                double elevation = computeCellElevation(noise, i, j);
+                elevations[i * size + j] = elevation;
+                grid[i][j] = new Cell(new CellState(Biome.NONE, computeCellPosition(i, j), elevation));
+            }
+        });
+
+        SeedIndex index = new SeedIndex(elevations);
+        for (int c : index.sampleLakes(lakeSeeds, terrainSeed)) {
+            grid[c / size][c % size].getCurrentState().setBiome(Biome.LAKE);
+        }
+        for (int c : index.sampleMountains(mountainSeeds, terrainSeed)) {
+            grid[c / size][c % size].getCurrentState().setBiome(Biome.MOUNTAIN);
+        }
+    }
+
+    /**
+     * Computes the elevation of a cell from the terrain noise.
+     * @param noise Noise the terrain is generated from
+     * @param i Row in the grid
+     * @param j Column in the grid
+     * @return Elevation in the range [0, 255]
+     */
+    public static double computeCellElevation(PerlinNoise noise, int i, int j) {
+        double elevation = noise.noise((double)i / 72.0, (double)j / 72.0);
+        return map(elevation, -1.0, 1.0, 0, 255);
+    }
+
     /**
      * Computes the Position tuple values of a cell
      * given its location in the grid.
@@ -72,14 +126,26 @@ public class CellGrid {
      * @return Position tuple value to be set in state
      */
     public Position computeCellPosition(int i, int j) {
-        if (i < GRID_SIZE/2) {
-            if (j < GRID_SIZE/2) {
+        return computeCellPosition(i, j, size);
+    }
+
+    /**
+     * Computes the Position tuple values of a cell
+     * given its location in a grid of the given size.
+     * @param i Row in the grid
+     * @param j Column in the grid
+     * @param size Width (and height) of the grid
+     * @return Position tuple value to be set in state
+     */
+    public static Position computeCellPosition(int i, int j, int size) {
+        if (i < size/2) {
+            if (j < size/2) {
                 return Position.NW;
             } else {
                 return Position.NE;
             }
         } else {
-            if (j < GRID_SIZE/2) {
+            if (j < size/2) {
                 return Position.SW;
             } else {
                 return Position.SE;
@@ -105,8 +171,8 @@ public class CellGrid {
      * to the console for debugging.
      */
     public void print() {
-        for (int i = 0; i < GRID_SIZE; i++) {
-            for (int j = 0; j < GRID_SIZE; j++) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
                 System.out.print(this.grid[i][j].getCurrentState().getPosition());
                 System.out.print(" ");
             }
@@ -210,8 +276,8 @@ public class CellGrid {
         CellState activeState = grid[i][j].getCurrentState();
         // Ff we are a border cell, keep the state the same
         if (j == 0 ||
-            j == GRID_SIZE-1 ||
-            i == GRID_SIZE-1 ||
+            j == size-1 ||
+            i == size-1 ||
             i == 0) {
             return activeState;
         }
@@ -295,20 +361,53 @@ public class CellGrid {
      * Updates each cell state in the grid according to
      * the cellular automata rules.
      */
+    @Override
     public void update() {
-        Cell[][] gridCopy = new Cell[GRID_SIZE][GRID_SIZE];
+        Cell[][] gridCopy = new Cell[size][size];
 
-        for (int i = 0; i < GRID_SIZE; i++) {
-            for (int j = 0; j < GRID_SIZE; j++) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
                 CellState newState = generateNewCellState(i, j);
                 gridCopy[i][j] = new Cell(newState);
             }
         }
         this.grid = gridCopy;
         TIME = TIME + 1;
+        time++;
+        publisher.publish(this, time);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TickUpdate> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+    @Override
+    public int getTime() {
+        return time;
     }
 
     public Cell[][] getGrid() {
         return grid;
     }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Biome getBiome(int i, int j) {
+        return grid[i][j].getCurrentState().getBiome();
+    }
+
+    @Override
+    public double getElevation(int i, int j) {
+        return grid[i][j].getCurrentState().getElevation();
+    }
 }
@@ -0,0 +1,344 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * A version of the PackedGrid that is split into horizontal
+ * strips, each of which is generated, owned and updated by a
+ * separate StripWorker process, so that a world can use more memory
+ * and cores than a single JVM has.
+ *
+ * This class is the coordinator. It starts the workers on the local
+ * machine, tells each which strip of rows it owns, shares the seeds
+ * out between them and tells them when to step. Workers generate
+ * their strip of terrain the same way a directly generated PackedGrid
+ * does, swap their edge rows with each other directly before each
+ * iteration, and run exactly the same rules, so the result is
+ * identical to a PackedGrid generated from the same size and seeds.
+ *
+ * The coordinator keeps none of the terrain. Elevations are worked
+ * out from the terrain noise whenever they are read, and the biomes
+ * of a strip are only fetched from its worker when part of it is
+ * read, and only kept until the next update.
+ */
+public class DistributedGrid implements World {
+    // How long to wait for workers to start, or to exit once told to quit
+    public static final int WORKER_TIMEOUT_MS = 30000;
+
+    private static final Biome[] BIOMES = Biome.values();
+
+    private final int size;
+    private final int words;
+    private final PerlinNoise noise;
+    private final Process[] processes;
+    private final Socket[] sockets;
+    private final DataInputStream[] ins;
+    private final DataOutputStream[] outs;
+    private final int[] rowFrom;
+
+    // Biome planes of each strip read since the last update, or null
+    private final AtomicReferenceArray<long[][]> strips;
+
+    private final TickPublisher publisher = new TickPublisher();
+    private int time = 0;
+
+    /**
+     * Starts the workers, each of which generates its own strip of
+     * a new grid, seeded exactly as a PackedGrid generated directly
+     * from the same arguments.
+     * @param size Width (and height) of the grid
+     * @param terrainSeed Seed for the terrain and for picking seed cells
+     * @param lakeSeeds Number of cells below 80 to start as LAKE
+     * @param mountainSeeds Number of cells above 180 to start as MOUNTAIN
+     * @param workers Number of worker processes to start, at least
+     *                one and at most one per row
+     * @throws IOException If the workers could not be started or reached
+     */
+    public DistributedGrid(int size, int terrainSeed, int lakeSeeds, int mountainSeeds, int workers)
+            throws IOException {
+        if (workers < 1 || workers > size) {
+            throw new IllegalArgumentException("Cannot split " + size + " rows between "
+                    + workers + " workers");
+        }
+        this.size = size;
+        this.words = PackedGrid.wordsPerRow(size);
+        this.noise = new PerlinNoise(terrainSeed);
+        this.processes = new Process[workers];
+        this.sockets = new Socket[workers];
+        this.ins = new DataInputStream[workers];
+        this.outs = new DataOutputStream[workers];
+        this.strips = new AtomicReferenceArray<>(workers);
+        this.rowFrom = new int[workers + 1];
+        for (int w = 0; w <= workers; w++) {
+            rowFrom[w] = (int) ((long) size * w / workers);
+        }
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+        int[] ports = new int[workers];
+
+        try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(WORKER_TIMEOUT_MS);
+            for (int w = 0; w < workers; w++) {
+                processes[w] = new ProcessBuilder(java, "-cp", classpath, "StripWorker",
+                        String.valueOf(server.getLocalPort())).inheritIO().start();
+            }
+
+            // Workers are numbered in the order they connect
+            for (int w = 0; w < workers; w++) {
+                sockets[w] = server.accept();
+                sockets[w].setTcpNoDelay(true);
+                ins[w] = new DataInputStream(new BufferedInputStream(sockets[w].getInputStream()));
+                outs[w] = new DataOutputStream(new BufferedOutputStream(sockets[w].getOutputStream()));
+                ports[w] = ins[w].readInt();
+            }
+
+            for (int w = 0; w < workers; w++) {
+                DataOutputStream out = outs[w];
+                out.writeInt(size);
+                out.writeInt(terrainSeed);
+                out.writeInt(rowFrom[w]);
+                out.writeInt(rowFrom[w+1]);
+                out.writeInt(w > 0 ? ports[w-1] : -1);
+                out.writeBoolean(w < workers - 1);
+                out.flush();
+            }
+
+            /*
+            Each worker reports how many candidate seed cells every band
+            its strip overlaps has. Once every band has been counted the
+            seeds can be shared out between the bands, exactly as the
+            PackedGrid does, and each worker told how many of each band's
+            seeds to draw.
+             */
+            int bands = PackedGrid.bandCount(size);
+            int[] lakeCandidates = new int[bands];
+            int[] mountainCandidates = new int[bands];
+            for (int w = 0; w < workers; w++) {
+                for (int b = firstBand(w); b <= lastBand(w); b++) {
+                    lakeCandidates[b] = ins[w].readInt();
+                    mountainCandidates[b] = ins[w].readInt();
+                }
+            }
+
+            int[] lakeShares = new int[bands];
+            int[] mountainShares = new int[bands];
+            for (int b = 0; b < bands; b++) {
+                lakeShares[b] = PackedGrid.bandShare(lakeSeeds, size, b);
+                mountainShares[b] = PackedGrid.bandShare(mountainSeeds, size, b);
+            }
+            int[] lakes = SeedIndex.distribute(lakeShares, lakeCandidates);
+            int[] mountains = SeedIndex.distribute(mountainShares, mountainCandidates);
+            for (int w = 0; w < workers; w++) {
+                for (int b = firstBand(w); b <= lastBand(w); b++) {
+                    outs[w].writeInt(lakes[b]);
+                    outs[w].writeInt(mountains[b]);
+                }
+                outs[w].flush();
+            }
+
+            for (int w = 0; w < workers; w++) {
+                expect(w, StripWorker.READY);
+            }
+        } catch (IOException | RuntimeException e) {
+            kill();
+            throw e;
+        }
+    }
+
+    private int firstBand(int worker) {
+        return rowFrom[worker] / PackedGrid.BAND_ROWS;
+    }
+
+    private int lastBand(int worker) {
+        return (rowFrom[worker+1] - 1) / PackedGrid.BAND_ROWS;
+    }
+
+    private void expect(int worker, int reply) throws IOException {
+        int received = ins[worker].readInt();
+        if (received != reply) {
+            throw new IOException("Worker " + worker + " replied " + received + " instead of " + reply);
+        }
+    }
+
+    /**
+     * Updates each cell in the grid according to
+     * the cellular automata rules.
+     */
+    @Override
+    public void update() {
+        update(1);
+    }
+
+    /**
+     * Updates each cell in the grid the given number of times,
+     * without fetching the strips in between.
+     * @param iterations Number of iterations of the automata rules
+     */
+    @Override
+    public void update(int iterations) {
+        try {
+            for (DataOutputStream out : outs) {
+                out.writeInt(StripWorker.STEP);
+                out.writeInt(iterations);
+                out.flush();
+            }
+            for (int w = 0; w < outs.length; w++) {
+                expect(w, StripWorker.DONE);
+            }
+        } catch (IOException e) {
+            kill();
+            throw new UncheckedIOException(e);
+        }
+        for (int w = 0; w < strips.length(); w++) {
+            strips.set(w, null);
+        }
+        time += iterations;
+        publisher.publish(this, time);
+    }
+
+    /**
+     * Fetches the biome planes of a strip from its worker, unless
+     * another thread reading the world already has.
+     */
+    private synchronized long[][] gather(int worker) {
+        long[][] planes = strips.get(worker);
+        if (planes != null) {
+            return planes;
+        }
+        int rows = rowFrom[worker+1] - rowFrom[worker];
+        planes = new long[PackedGrid.BIOME_PLANES][rows * words];
+        try {
+            outs[worker].writeInt(StripWorker.GATHER);
+            outs[worker].flush();
+            for (int r = 0; r < rows; r++) {
+                StripWorker.readRow(ins[worker], planes, words, r);
+            }
+        } catch (IOException e) {
+            kill();
+            throw new UncheckedIOException(e);
+        }
+        strips.set(worker, planes);
+        return planes;
+    }
+
+    /**
+     * Completes every subscription, tells the workers
+     * to quit and waits for them to exit. Workers that cannot
+     * be told, or do not exit in time, are killed.
+     */
+    @Override
+    public void close() {
+        publisher.close();
+        IOException failure = null;
+        for (int w = 0; w < outs.length; w++) {
+            try {
+                outs[w].writeInt(StripWorker.QUIT);
+                outs[w].flush();
+                sockets[w].close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(WORKER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                kill();
+                break;
+            }
+        }
+        if (failure != null) {
+            kill();
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    /**
+     * Kills every worker that has been started and closes
+     * every connection, after something has gone wrong.
+     */
+    private void kill() {
+        for (Process process : processes) {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+        }
+        for (Socket socket : sockets) {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TickUpdate> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public int getTime() {
+        return time;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Biome getBiome(int i, int j) {
+        // The strip holding row i, the last one starting at or before it
+        int w = Arrays.binarySearch(rowFrom, i);
+        if (w < 0) {
+            w = -w - 2;
+        }
+        long[][] planes = strips.get(w);
+        if (planes == null) {
+            planes = gather(w);
+        }
+
+        int index = (i - rowFrom[w]) * words + (j >>> 6);
+        int id = 0;
+        for (int k = 0; k < PackedGrid.BIOME_PLANES; k++) {
+            id |= (int) ((planes[k][index] >>> j) & 1L) << k;
+        }
+        return BIOMES[id];
+    }
+
+    /**
+     * Elevation is not kept, but worked out again from the terrain
+     * noise, so unlike PackedGrid it is not rounded to a byte and
+     * the default getTerrainClass() classifies cells exactly.
+     */
+    @Override
+    public double getElevation(int i, int j) {
+        return CellGrid.computeCellElevation(noise, i, j);
+    }
+}
@@ -1,8 +1,8 @@
-import javax.imageio.ImageIO;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * @author Duncan Grubbs
@@ -14,6 +14,7 @@ import java.io.IOException;
  * The Draw utility draws a given grid based on cell states.
  * As an input, it simply takes the 'grid' (2D array) of cells
  * and produces a png image in the root directory.
+ * The format of the image can be changed through ENCODER.
  */
 public class Draw {
     /**
@@ -29,19 +30,19 @@ public class Draw {
     public static final Color RIVER = new Color(49, 157, 255);
     public static final Color NONE = new Color(0, 0, 0);
     public static int COUNT = 0;
+    public static ImageEncoder ENCODER = ImageEncoder.png(1);
 
     public static BufferedImage img = new BufferedImage(CellGrid.GRID_SIZE, CellGrid.GRID_SIZE, BufferedImage.TYPE_INT_RGB);
 
     /**
-     * Saves a PNG image in a given location, if given
+     * Saves an image in a given location, if given
      * a previously instantiated BufferedImage and a location.
      * @param img Constructed image to be saved locally
      * @param location Directory location for the image
      */
     public static void SaveImage(BufferedImage img, String location) {
-        File f = new File(location);
         try {
-            ImageIO.write(img, "jpg", f);
+            ENCODER.write(img, Paths.get(location));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -65,43 +66,65 @@ public class Draw {
     }
 
     /**
-     * Draws colors from the cell states in the CellGrid
+     * Picks the color of a single cell from its
+     * biome and elevation.
+     * @param biome Biome of the cell
+     * @param elevation Elevation of the cell
+     * @return Color of the cell when drawn
+     */
+    public static Color colorOf(Biome biome, double elevation) {
+        switch (biome) {
+            case DESERT:
+                return adjustColorOnElevation(DESERT, elevation);
+            case MOUNTAIN:
+                return adjustColorOnElevation(MOUNTAIN, elevation);
+            case LAKE:
+                return adjustColorOnElevation(LAKE, elevation);
+            case PLAIN:
+                return adjustColorOnElevation(PLAIN, elevation);
+            case FOREST:
+                return adjustColorOnElevation(FOREST, elevation);
+            case RIVER:
+                return adjustColorOnElevation(RIVER, elevation);
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * Draws colors from the cell states in the world
      * in a BufferedImage and saves the image to the 'images'
      * directory.
-     * @param grid Grid of current automata cell states.
+     * @param world World of current automata cell states.
      */
-    public static void draw(CellGrid grid) {
-        for (int i = 0; i < img.getWidth(); i++) {
-            for (int j = 0; j < img.getHeight(); j++) {
-                CellState state = grid.getGrid()[i][j].getCurrentState();
-                switch (state.getBiome()) {
-                    case DESERT:
-                        img.setRGB(i, j, adjustColorOnElevation(DESERT, state.getElevation()).getRGB());
-                        break;
-                    case MOUNTAIN:
-                        img.setRGB(i, j, adjustColorOnElevation(MOUNTAIN, state.getElevation()).getRGB());
-                        break;
-                    case LAKE:
-                        img.setRGB(i, j, adjustColorOnElevation(LAKE, state.getElevation()).getRGB());
-                        break;
-                    case PLAIN:
-                        img.setRGB(i, j, adjustColorOnElevation(PLAIN, state.getElevation()).getRGB());
-                        break;
-                    case FOREST:
-                        img.setRGB(i, j, adjustColorOnElevation(FOREST, state.getElevation()).getRGB());
-                        break;
-                    case RIVER:
-                        img.setRGB(i, j, adjustColorOnElevation(RIVER, state.getElevation()).getRGB());
-                        break;
-                    case NONE:
-                        img.setRGB(i, j, NONE.getRGB());
-                        break;
-                }
+    public static void draw(World world) {
+        String filename = "MAP_" + COUNT + "." + ENCODER.getFormat().getExtension();
+
+        if (ENCODER.getFormat() == ImageEncoder.Format.RAW) {
+            // Nothing to draw, the cells are written as they are
+            try {
+                ENCODER.write(world, Paths.get(filename));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            COUNT++;
+            return;
+        }
+
+        if (img.getWidth() != world.getSize()) {
+            img = new BufferedImage(world.getSize(), world.getSize(), BufferedImage.TYPE_INT_RGB);
+        }
 
+        // Write straight into the pixels of the image, which are
+        // stored row by row, so pixel (i, j) is at j * width + i
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        int width = img.getWidth();
+        for (int j = 0; j < img.getHeight(); j++) {
+            for (int i = 0; i < width; i++) {
+                pixels[j * width + i] = colorOf(world.getBiome(i, j), world.getElevation(i, j)).getRGB();
             }
         }
 
-        String filename = "MAP_" + COUNT + ".jpg";
         SaveImage(img, filename);
         // Iterate so we get a unique filename each time
         COUNT++;
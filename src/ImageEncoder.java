@@ -0,0 +1,211 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * Writes images (and raw worlds) to disk, keeping the expensive
+ * parts of encoding around between frames. Every thread that uses
+ * an encoder gets its own ImageWriter and output buffer, which are
+ * reused for every image it writes, and the encoded bytes are handed
+ * to the file in a single channel write.
+ *
+ * There are three formats to choose from, depending on whether
+ * speed or size matters more for a run:
+ * PNG is lossless, with a tunable deflate level (0 is fastest).
+ * JPEG is lossy and small, with a tunable quality.
+ * RAW skips image encoding altogether and dumps the biome ordinal
+ * and elevation of every cell, which is by far the fastest.
+ */
+public class ImageEncoder {
+    public enum Format {
+        PNG("png"),
+        JPEG("jpg"),
+        RAW("raw");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    // Magic number at the start of a RAW dump, "BIOM"
+    public static final int RAW_MAGIC = 0x42494F4D;
+
+    private final Format format;
+    private final float quality;
+    private final ThreadLocal<ImageWriter> writers;
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    private ImageEncoder(Format format, float quality) {
+        this.format = format;
+        this.quality = quality;
+        this.writers = ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName(format.getExtension()).next());
+    }
+
+    /**
+     * @param compressionLevel Deflate level from 0 (fastest) to 9 (smallest)
+     * @return Encoder for lossless PNG images
+     */
+    public static ImageEncoder png(int compressionLevel) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Invalid PNG compression level " + compressionLevel);
+        }
+        // The PNG writer maps quality 1 to no compression and 0 to the most
+        return new ImageEncoder(Format.PNG, 1.0f - compressionLevel / 9.0f);
+    }
+
+    /**
+     * @param quality Quality from 0 (smallest) to 1 (best)
+     * @return Encoder for lossy JPEG images
+     */
+    public static ImageEncoder jpeg(float quality) {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("Invalid JPEG quality " + quality);
+        }
+        return new ImageEncoder(Format.JPEG, quality);
+    }
+
+    /**
+     * @return Encoder that dumps the cells of a world without drawing them
+     */
+    public static ImageEncoder raw() {
+        return new ImageEncoder(Format.RAW, 1.0f);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Encodes an image and writes it to a file.
+     * @param img Image to write
+     * @param path File to (over)write
+     * @throws IOException If the image could not be encoded or written
+     */
+    public void write(BufferedImage img, Path path) throws IOException {
+        encodeIntoBuffer(img).writeTo(path);
+    }
+
+    /**
+     * Encodes an image in memory.
+     * @param img Image to encode
+     * @return The encoded image
+     * @throws IOException If the image could not be encoded
+     */
+    public byte[] encode(BufferedImage img) throws IOException {
+        return encodeIntoBuffer(img).toByteArray();
+    }
+
+    private Buffer encodeIntoBuffer(BufferedImage img) throws IOException {
+        if (format == Format.RAW) {
+            throw new IllegalStateException("RAW encoders write worlds, not images");
+        }
+
+        ImageWriter writer = writers.get();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        if (param.getCompressionType() == null) {
+            param.setCompressionType(param.getCompressionTypes()[0]);
+        }
+        param.setCompressionQuality(quality);
+
+        Buffer buffer = buffers.get();
+        buffer.reset();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(buffer)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.setOutput(null);
+        }
+        return buffer;
+    }
+
+    /**
+     * Dumps the biome ordinal and elevation of every cell in
+     * a world. The file starts with RAW_MAGIC and the size of the
+     * world as two big endian ints, followed by one byte per cell
+     * for the biomes and then one byte per cell for the elevations,
+     * both in row major order.
+     * @param world World to write
+     * @param path File to (over)write
+     * @throws IOException If the file could not be written
+     */
+    public void write(World world, Path path) throws IOException {
+        int size = world.getSize();
+        Buffer buffer = buffers.get();
+        buffer.reset();
+        buffer.ensureCapacity(8 + 2 * size * size);
+
+        ByteBuffer out = buffer.view(8 + 2 * size * size);
+        out.putInt(RAW_MAGIC);
+        out.putInt(size);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                out.put((byte) world.getBiome(i, j).ordinal());
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                out.put(PackedGrid.quantize(world.getElevation(i, j)));
+            }
+        }
+        buffer.writeTo(path);
+    }
+
+    /**
+     * Output buffer that grows to the largest image written
+     * on its thread and is then reused without copying.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(1 << 16);
+        }
+
+        void ensureCapacity(int capacity) {
+            if (buf.length < capacity) {
+                buf = new byte[capacity];
+            }
+        }
+
+        /**
+         * Claims the first length bytes of the buffer to be filled in directly.
+         */
+        ByteBuffer view(int length) {
+            count = length;
+            return ByteBuffer.wrap(buf, 0, length);
+        }
+
+        void writeTo(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer bytes = ByteBuffer.wrap(buf, 0, count);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+        }
+    }
+}
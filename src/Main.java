@@ -1,3 +1,7 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
 /**
  * @author Duncan Grubbs
  * @date 2020-04-13
@@ -8,17 +12,26 @@ public class Main {
 
     /**
      * Run to demo the project.
-     * @param args
+     * @param args Optionally the engine to run the automata
+     *             with, either "reference" (default), "packed",
+     *             "tiled", "quadtree", "distributed" or "fast", then
+     *             optionally a directory to export the final
+     *             map into as a tile pyramid. Run with
+     *             -Dpreview=PORT to watch the map live on
+     *             http://localhost:PORT/ instead of writing
+     *             an image every iteration, and with -Dseed=N
+     *             to replay the map of an earlier run.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         /*
-        SEED_CELLS specifies the number of
-        initialized cells before the automata
-        iterations are started. These seed the
-        construction of biomes, and are only
-        mountain (snow), where water can 'flow'
-        down from. This shouldn't be more than
-        a few thousand for best performance.
+        LAKE_SEEDS and MOUNTAIN_SEEDS specify the
+        number of cells initialized as lakes and as
+        mountains (snow), where water can 'flow' down
+        from, before the automata iterations are started.
+        These seed the construction of biomes. Exactly
+        this many are placed (as long as the terrain
+        has room for them), and the same TERRAIN_SEED
+        always gives the same map.
 
         ITERATIONS specifies the number of automata
         iterations to do (i.e. how many times to
@@ -26,14 +39,71 @@ public class Main {
         Considering the way biomes 'grow' in this algorithm,
         this should be a highish number (something in the
         hundreds for good demonstrations).
+
+        The packed engine applies the same rules to a
+        bit packed copy of the grid, which is much faster
+        and uses far less memory on large grids. The tiled
+        engine is the packed engine split into tiles that
+        are updated across all available cores. The
+        quadtree engine remembers how every block of the map
+        evolves, so regions that have settled cost nothing.
+        The fast engine generates the packed grid directly
+        in parallel, and starts updating before all of the
+        terrain is ready. The distributed engine generates
+        it the same way, but split between WORKERS separate
+        processes that each generate and update their own
+        strip of the grid.
          */
-        int SEED_CELLS = 2500; // 1% of total pixels
+        int TERRAIN_SEED = Integer.getInteger("seed", new Random().nextInt(100));
         int ITERATIONS = 500;
+        int WORKERS = 4;
+        int LAKE_SEEDS = 250;
+        int MOUNTAIN_SEEDS = 250;
+
+        String mode = args.length > 0 ? args[0] : "reference";
+        System.out.println("Terrain seed " + TERRAIN_SEED + " (rerun with -Dseed=" + TERRAIN_SEED + ")");
+
+        World c;
+        if (mode.equals("fast")) {
+            c = new PackedGrid(CellGrid.GRID_SIZE, TERRAIN_SEED, LAKE_SEEDS, MOUNTAIN_SEEDS);
+        } else if (mode.equals("distributed")) {
+            c = new DistributedGrid(CellGrid.GRID_SIZE, TERRAIN_SEED, LAKE_SEEDS, MOUNTAIN_SEEDS, WORKERS);
+        } else {
+            c = new CellGrid(CellGrid.GRID_SIZE, TERRAIN_SEED, LAKE_SEEDS, MOUNTAIN_SEEDS);
+        }
+
+        if (mode.equals("packed")) {
+            c = new PackedGrid(c);
+        } else if (mode.equals("tiled")) {
+            PackedGrid packed = new PackedGrid(c);
+            packed.setTiling(64, 8, true);
+            c = packed;
+        } else if (mode.equals("quadtree")) {
+            c = new QuadTreeGrid(c);
+        }
+
+        int previewPort = Integer.getInteger("preview", -1);
+        PreviewServer preview = previewPort >= 0 ? new PreviewServer(previewPort) : null;
+        if (preview != null) {
+            System.out.println("Preview at http://localhost:" + preview.getPort() + "/");
+        }
 
-        CellGrid c = new CellGrid(SEED_CELLS);
         for (int i = 0; i < ITERATIONS; i++) {
             c.update();
-            Draw.draw(c);
+            if (preview != null) {
+                preview.offer(c, c.getTime());
+            } else {
+                Draw.draw(c);
+            }
+        }
+
+        if (args.length > 1) {
+            new TilePyramid(new File(args[1])).export(c);
+        }
+
+        c.close();
+        if (preview != null) {
+            preview.close();
         }
     }
 }
@@ -0,0 +1,733 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * A compact version of the CellGrid that stores the world as
+ * bit planes instead of a 2D array of Cell objects. Every row of
+ * the grid is split into 64 bit words, one bit per cell.
+ *
+ * The biome of a cell is held across three planes (bit k of the
+ * biome ordinal lives in plane k), so a cell costs three bits
+ * instead of a Cell, a CellState and their fields. Elevation never
+ * changes once the terrain is generated, so the only things the
+ * automata rules ever need from it (elevation bands, and whether a
+ * cell sits in a canyon or on a slope) are worked out once and kept
+ * as one more bit plane each. The elevation itself is only kept to
+ * byte precision for drawing.
+ *
+ * Because of this layout the rules can be applied to 64 cells at a
+ * time with plain bitwise operations, which keeps the working set
+ * small enough that large grids are no longer bound by memory.
+ *
+ * By default the grid is swept row by row on a single thread. With
+ * setTiling() it is instead split into tiles, which are the units of
+ * work handed to each thread when updating in parallel. The kernel
+ * is bound by computation rather than memory, so tiling on its own
+ * does not make a sweep any faster.
+ *
+ * A packed grid can also be generated directly, without building
+ * a CellGrid first. The terrain is then generated in bands of rows
+ * in the background, and the first update starts on each band as
+ * soon as it (and the bands either side of it) are ready.
+ */
+public class PackedGrid implements World {
+    public static final int BIOME_PLANES = 3;
+
+    /*
+    Terrain planes. A set bit means the cell belongs to
+    the given class. ACTIVE cells are every cell that is
+    not on the border of the grid, since border cells keep
+    their state forever.
+     */
+    public static final int ACTIVE = 0;
+    public static final int CANYON = 1;
+    public static final int SLOPE = 2;
+    public static final int LOW = 3;    // elevation <= 100
+    public static final int PLAIN = 4;  // 100 < elevation < 150
+    public static final int FOREST = 5; // 150 < elevation < 180
+    public static final int HIGH = 6;   // elevation > 180
+    public static final int TERRAIN_PLANES = 7;
+
+    // Number of rows generated at a time by the direct constructor
+    public static final int BAND_ROWS = 64;
+
+    private static final Biome[] BIOMES = Biome.values();
+    private static final int FOREST_ID = Biome.FOREST.ordinal();
+    private static final int MOUNTAIN_ID = Biome.MOUNTAIN.ordinal();
+    private static final int PLAIN_ID = Biome.PLAIN.ordinal();
+    private static final int LAKE_ID = Biome.LAKE.ordinal();
+    private static final int RIVER_ID = Biome.RIVER.ordinal();
+    private static final int NONE_ID = Biome.NONE.ordinal();
+
+    private final int size;
+    private final int words;
+    private long[][] biome;
+    private long[][] next;
+    private final long[][] terrain;
+    private final byte[] elevation;
+
+    private int tileRows;
+    private int tileWords;
+    private boolean parallel = false;
+    private final TickPublisher publisher = new TickPublisher();
+    private int time = 0;
+
+    // Bands of terrain still being generated, or null once all are
+    // done and every seed has been placed
+    private volatile CompletableFuture<?>[] bands;
+    private int lakeSeeds;
+    private int mountainSeeds;
+    private int terrainSeed;
+
+    /**
+     * Packs the current state of another world, so that
+     * the packed grid continues exactly where it left off.
+     * @param source World to copy biomes and elevation from
+     */
+    public PackedGrid(World source) {
+        this.size = source.getSize();
+        this.words = wordsPerRow(size);
+        this.biome = new long[BIOME_PLANES][size * words];
+        this.next = new long[BIOME_PLANES][size * words];
+        this.terrain = new long[TERRAIN_PLANES][size * words];
+        this.elevation = new byte[size * size];
+        this.tileRows = size;
+        this.tileWords = words;
+        this.time = source.getTime();
+
+        if (source instanceof PackedGrid) {
+            PackedGrid packed = (PackedGrid) source;
+            long[][] sourceBiome = packed.getBiomePlanes();
+            long[][] sourceTerrain = packed.getTerrainPlanes();
+            for (int k = 0; k < BIOME_PLANES; k++) {
+                System.arraycopy(sourceBiome[k], 0, biome[k], 0, size * words);
+            }
+            for (int t = 0; t < TERRAIN_PLANES; t++) {
+                System.arraycopy(sourceTerrain[t], 0, terrain[t], 0, size * words);
+            }
+            System.arraycopy(packed.elevation, 0, elevation, 0, size * size);
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                int index = i * words + (j >>> 6);
+                long bit = 1L << j;
+
+                setBiome(biome, index, bit, source.getBiome(i, j).ordinal());
+                elevation[i * size + j] = quantize(source.getElevation(i, j));
+
+                int terrainClass = source.getTerrainClass(i, j);
+                for (int t = 0; t < TERRAIN_PLANES; t++) {
+                    if ((terrainClass & (1 << t)) != 0) {
+                        terrain[t][index] |= bit;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates a new packed grid directly, with the same terrain
+     * as a CellGrid built from the same size and seed. Each band
+     * of rows is seeded with its share of the lakes and mountains,
+     * drawn from its own candidate cells, so the seeds are spread
+     * as evenly but not placed exactly as in that CellGrid. Seeds a
+     * band has no room for go to the first bands that do, so exactly
+     * the given number are placed unless the whole terrain has too
+     * few candidates.
+     *
+     * This returns straight away, while the terrain is still being
+     * generated in parallel.
+     * @param size Width (and height) of the grid
+     * @param terrainSeed Seed for the terrain and for picking seed cells
+     * @param lakeSeeds Number of cells below 80 to start as LAKE
+     * @param mountainSeeds Number of cells above 180 to start as MOUNTAIN
+     */
+    public PackedGrid(int size, int terrainSeed, int lakeSeeds, int mountainSeeds) {
+        this.size = size;
+        this.words = wordsPerRow(size);
+        this.biome = new long[BIOME_PLANES][size * words];
+        this.next = new long[BIOME_PLANES][size * words];
+        this.terrain = new long[TERRAIN_PLANES][size * words];
+        this.elevation = new byte[size * size];
+        this.tileRows = size;
+        this.tileWords = words;
+        this.lakeSeeds = lakeSeeds;
+        this.mountainSeeds = mountainSeeds;
+        this.terrainSeed = terrainSeed;
+
+        PerlinNoise noise = new PerlinNoise(terrainSeed);
+        CompletableFuture<?>[] bands = new CompletableFuture<?>[bandCount(size)];
+        for (int b = 0; b < bands.length; b++) {
+            int band = b;
+            bands[b] = CompletableFuture.supplyAsync(() -> {
+                SeedIndex index = generateBand(noise, size, band, biome, terrain, elevation, 0, size, 0);
+                long seed = bandSeed(terrainSeed, band);
+                plant(size, band, index.sampleLakes(bandShare(lakeSeeds, size, band), seed), 0, LAKE_ID,
+                        biome, 0, size, 0);
+                plant(size, band, index.sampleMountains(bandShare(mountainSeeds, size, band), seed), 0, MOUNTAIN_ID,
+                        biome, 0, size, 0);
+                return index;
+            }, ForkJoinPool.commonPool());
+        }
+        this.bands = bands;
+    }
+
+    /**
+     * @return Number of bands of rows a directly generated
+     * grid of the given size is split into
+     */
+    static int bandCount(int size) {
+        return (size + BAND_ROWS - 1) / BAND_ROWS;
+    }
+
+    /**
+     * @return A band's share of a number of seeds, in proportion to
+     * its rows. The shares of all of the bands add up to exactly total.
+     */
+    static int bandShare(int total, int size, int band) {
+        int r0 = band * BAND_ROWS;
+        int r1 = Math.min(size, r0 + BAND_ROWS);
+        return (int) ((long) total * r1 / size - (long) total * r0 / size);
+    }
+
+    /**
+     * @return Seed for picking the seed cells of a band
+     */
+    static long bandSeed(int terrainSeed, int band) {
+        return (long) terrainSeed * 1000003L + band;
+    }
+
+    /**
+     * Generates the elevation and terrain classes of a band of
+     * rows, computing the elevation of the rows either side of it
+     * as well so that bands do not depend on each other. Only the
+     * rows of the band from rowFrom up to rowTo are written, into
+     * planes whose first row is row offset of the grid, so that a
+     * strip of a grid can be generated on its own.
+     * @param elevation Where to write the elevation of each cell, or null
+     * @return Index of the band's candidate seed cells, numbered
+     * from the start of the row above the band (if there is one)
+     */
+    static SeedIndex generateBand(PerlinNoise noise, int size, int band,
+                                  long[][] biome, long[][] terrain, byte[] elevation,
+                                  int rowFrom, int rowTo, int offset) {
+        int words = wordsPerRow(size);
+        int r0 = band * BAND_ROWS;
+        int r1 = Math.min(size, r0 + BAND_ROWS);
+        int h0 = Math.max(0, r0 - 1);
+        int h1 = Math.min(size, r1 + 1);
+        double[] e = new double[(h1 - h0) * size];
+        for (int i = h0; i < h1; i++) {
+            for (int j = 0; j < size; j++) {
+                e[(i - h0) * size + j] = CellGrid.computeCellElevation(noise, i, j);
+            }
+        }
+
+        for (int i = Math.max(r0, rowFrom); i < Math.min(r1, rowTo); i++) {
+            int row = (i - h0) * size;
+            for (int j = 0; j < size; j++) {
+                int index = (i - offset) * words + (j >>> 6);
+                long bit = 1L << j;
+                setBiome(biome, index, bit, NONE_ID);
+                if (elevation != null) {
+                    elevation[(i - offset) * size + j] = quantize(e[row + j]);
+                }
+
+                if (i == 0 || j == 0 || i == size-1 || j == size-1) {
+                    continue;
+                }
+                int terrainClass = classify(e[row + j],
+                        e[row - size + j],
+                        e[row + size + j],
+                        e[row + j - 1],
+                        e[row + j + 1]);
+                for (int t = 0; t < TERRAIN_PLANES; t++) {
+                    if ((terrainClass & (1 << t)) != 0) {
+                        terrain[t][index] |= bit;
+                    }
+                }
+            }
+        }
+
+        return new SeedIndex(e, (r0 - h0) * size, (r1 - h0) * size);
+    }
+
+    /**
+     * Sets the biome of some of the cells drawn from a band's index,
+     * skipping any outside of the rows from rowFrom up to rowTo.
+     * @param cells Indices of the cells, numbered as in generateBand()
+     * @param from Position of the first of the cells to set
+     * @param id Biome to set them to
+     * @param biome Biome planes whose first row is row offset of the grid
+     */
+    static void plant(int size, int band, int[] cells, int from, int id,
+                      long[][] biome, int rowFrom, int rowTo, int offset) {
+        int words = wordsPerRow(size);
+        int h0 = Math.max(0, band * BAND_ROWS - 1);
+        for (int k = from; k < cells.length; k++) {
+            int i = h0 + cells[k] / size;
+            int j = cells[k] % size;
+            if (i >= rowFrom && i < rowTo) {
+                setBiome(biome, (i - offset) * words + (j >>> 6), 1L << j, id);
+            }
+        }
+    }
+
+    /**
+     * Waits for every band, then places the seeds that bands had
+     * no room for in the first bands that still have candidates to
+     * spare. Bands draw their seeds with a partial shuffle, so drawing
+     * more from a band only adds cells to the ones it already has.
+     * @return Which bands were given more seeds, or null if the
+     * terrain had already been finished
+     */
+    private synchronized boolean[] finishTerrain() {
+        CompletableFuture<?>[] pending = bands;
+        if (pending == null) {
+            return null;
+        }
+        CompletableFuture.allOf(pending).join();
+
+        int count = pending.length;
+        SeedIndex[] indices = new SeedIndex[count];
+        int[] lakeShares = new int[count];
+        int[] mountainShares = new int[count];
+        int[] lakeCandidates = new int[count];
+        int[] mountainCandidates = new int[count];
+        for (int b = 0; b < count; b++) {
+            indices[b] = (SeedIndex) pending[b].join();
+            lakeShares[b] = bandShare(lakeSeeds, size, b);
+            mountainShares[b] = bandShare(mountainSeeds, size, b);
+            lakeCandidates[b] = indices[b].getLakeCandidates();
+            mountainCandidates[b] = indices[b].getMountainCandidates();
+        }
+        int[] lakes = SeedIndex.distribute(lakeShares, lakeCandidates);
+        int[] mountains = SeedIndex.distribute(mountainShares, mountainCandidates);
+
+        boolean[] toppedUp = new boolean[count];
+        for (int b = 0; b < count; b++) {
+            long seed = bandSeed(terrainSeed, b);
+            int placedLakes = Math.min(lakeShares[b], lakeCandidates[b]);
+            if (lakes[b] > placedLakes) {
+                plant(size, b, indices[b].sampleLakes(lakes[b], seed), placedLakes, LAKE_ID, biome, 0, size, 0);
+                toppedUp[b] = true;
+            }
+            int placedMountains = Math.min(mountainShares[b], mountainCandidates[b]);
+            if (mountains[b] > placedMountains) {
+                plant(size, b, indices[b].sampleMountains(mountains[b], seed), placedMountains, MOUNTAIN_ID,
+                        biome, 0, size, 0);
+                toppedUp[b] = true;
+            }
+        }
+
+        bands = null;
+        return toppedUp;
+    }
+
+    /**
+     * Waits for any terrain still being generated.
+     */
+    private void awaitTerrain() {
+        if (bands != null) {
+            finishTerrain();
+        }
+    }
+
+    /**
+     * Applies the first iteration of the rules band by band,
+     * starting on each band as soon as it and its neighbors
+     * have been generated.
+     */
+    private void updateAsBandsArrive() {
+        CompletableFuture<?>[] pending = bands;
+        for (int b = 0; b < pending.length; b++) {
+            for (int n = Math.max(0, b - 1); n <= Math.min(pending.length - 1, b + 1); n++) {
+                pending[n].join();
+            }
+            stepBand(b);
+        }
+
+        // Bands given seeds that other bands had no room for
+        // change the bands either side of them, so those are redone
+        boolean[] toppedUp = finishTerrain();
+        boolean[] redo = new boolean[pending.length];
+        for (int b = 0; toppedUp != null && b < pending.length; b++) {
+            if (toppedUp[b]) {
+                for (int n = Math.max(0, b - 1); n <= Math.min(pending.length - 1, b + 1); n++) {
+                    redo[n] = true;
+                }
+            }
+        }
+        for (int b = 0; b < pending.length; b++) {
+            if (redo[b]) {
+                stepBand(b);
+            }
+        }
+
+        long[][] tmp = biome;
+        biome = next;
+        next = tmp;
+    }
+
+    private void stepBand(int b) {
+        int r0 = b * BAND_ROWS;
+        int r1 = Math.min(size, r0 + BAND_ROWS);
+        step(biome, next, terrain, words, size, r0, r1, 0, words);
+    }
+
+    /**
+     * @param size Number of cells in a row
+     * @return Number of 64 bit words needed to hold one row of a plane
+     */
+    public static int wordsPerRow(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    /**
+     * Works out the terrain class of a cell that is not on
+     * the border of the grid, given its own elevation and the
+     * elevations of the cells in its von Neumann neighborhood.
+     * These are the same comparisons generateNewCellState() makes.
+     * @return Bit mask with bit t set for every terrain plane t
+     * the cell belongs to
+     */
+    public static int classify(double e, double left, double right, double top, double bottom) {
+        int terrainClass = 1 << ACTIVE;
+
+        if ((left > e && right > e) || (top > e && bottom > e)) {
+            terrainClass |= 1 << CANYON;
+        }
+        if ((left > e && right < e)
+            || (left < e && right > e)
+            || (top < e && bottom > e)
+            || (top > e && bottom < e)) {
+            terrainClass |= 1 << SLOPE;
+        }
+
+        if (e <= 100) {
+            terrainClass |= 1 << LOW;
+        } else if (e < 150) {
+            terrainClass |= 1 << PLAIN;
+        } else if (e > 150 && e < 180) {
+            terrainClass |= 1 << FOREST;
+        } else if (e > 180) {
+            terrainClass |= 1 << HIGH;
+        }
+        return terrainClass;
+    }
+
+    /**
+     * Squeezes an elevation in [0, 255] into a single byte.
+     * @param elevation Elevation to quantize
+     * @return Elevation rounded down to the nearest whole step
+     */
+    public static byte quantize(double elevation) {
+        return (byte) Math.max(0, Math.min(255, (int) elevation));
+    }
+
+    static void setBiome(long[][] planes, int index, long bit, int id) {
+        for (int k = 0; k < BIOME_PLANES; k++) {
+            if ((id & (1 << k)) != 0) {
+                planes[k][index] |= bit;
+            } else {
+                planes[k][index] &= ~bit;
+            }
+        }
+    }
+
+    /**
+     * Mask of the cells in a single word whose biome is b.
+     * Words that fall outside of the row never match.
+     */
+    private static long equal(long[][] planes, int words, int row, int word, int b) {
+        if (word < 0 || word >= words) {
+            return 0L;
+        }
+        int index = row * words + word;
+        long m = (b & 1) != 0 ? planes[0][index] : ~planes[0][index];
+        m &= (b & 2) != 0 ? planes[1][index] : ~planes[1][index];
+        m &= (b & 4) != 0 ? planes[2][index] : ~planes[2][index];
+        return m;
+    }
+
+    /**
+     * Shifts a mask so that every cell sees the value of the
+     * cell before it (column j-1) in the same row.
+     */
+    private static long west(long current, long previous) {
+        return (current << 1) | (previous >>> 63);
+    }
+
+    /**
+     * Shifts a mask so that every cell sees the value of the
+     * cell after it (column j+1) in the same row.
+     */
+    private static long east(long current, long following) {
+        return (current >>> 1) | (following << 63);
+    }
+
+    /**
+     * Word level version of isAdjacentToBiome(), checking the
+     * Moore neighborhood of 64 cells at once.
+     */
+    private static long adjacent(long[][] planes, int words, int row, int word, int b) {
+        long mask = 0L;
+        for (int r = row - 1; r <= row + 1; r++) {
+            long prev = equal(planes, words, r, word - 1, b);
+            long cur = equal(planes, words, r, word, b);
+            long next = equal(planes, words, r, word + 1, b);
+            mask |= west(cur, prev) | east(cur, next);
+            if (r != row) {
+                mask |= cur;
+            }
+        }
+        return mask;
+    }
+
+    private static long bits(int k, int id, long mask) {
+        return (id & (1 << k)) != 0 ? mask : 0L;
+    }
+
+    /**
+     * Applies one iteration of the automata rules to a block of
+     * rows and words, reading from one set of biome planes and
+     * writing into another. The first and last row of the planes
+     * are copied as they are, since they have no neighbors on
+     * one side.
+     * @param src Biome planes to read from
+     * @param dst Biome planes to write to
+     * @param terrain Terrain planes, laid out like the biome planes
+     * @param words Number of words in a row
+     * @param rows Number of rows in the planes
+     * @param rowFrom First row to update
+     * @param rowTo Row after the last one to update
+     * @param wordFrom First word in each row to update
+     * @param wordTo Word after the last one to update
+     */
+    static void step(long[][] src, long[][] dst, long[][] terrain, int words, int rows,
+                     int rowFrom, int rowTo, int wordFrom, int wordTo) {
+        for (int i = rowFrom; i < rowTo; i++) {
+            if (i == 0 || i == rows-1) {
+                for (int k = 0; k < BIOME_PLANES; k++) {
+                    System.arraycopy(src[k], i * words + wordFrom, dst[k], i * words + wordFrom, wordTo - wordFrom);
+                }
+                continue;
+            }
+
+            for (int w = wordFrom; w < wordTo; w++) {
+                int index = i * words + w;
+                long active = terrain[ACTIVE][index];
+                long canyon = terrain[CANYON][index];
+                long slope = terrain[SLOPE][index];
+
+                long nearRiver = adjacent(src, words, i, w, RIVER_ID);
+                long nearLake = adjacent(src, words, i, w, LAKE_ID);
+                long nearMountain = adjacent(src, words, i, w, MOUNTAIN_ID);
+                long nearForest = adjacent(src, words, i, w, FOREST_ID);
+                long nearPlain = adjacent(src, words, i, w, PLAIN_ID);
+                long nearWater = nearRiver | nearLake;
+
+                // Left and right are the rows above and below, top and
+                // bottom are the columns either side (see generateNewCellState)
+                long leftNone = equal(src, words, i-1, w, NONE_ID);
+                long rightNone = equal(src, words, i+1, w, NONE_ID);
+                long midNone = equal(src, words, i, w, NONE_ID);
+                long topNone = west(midNone, equal(src, words, i, w-1, NONE_ID));
+                long bottomNone = east(midNone, equal(src, words, i, w+1, NONE_ID));
+
+                /*
+                The rules are the same as generateNewCellState(), in the
+                same order, with each rule only claiming cells that no
+                earlier rule has. The third rule there (in a canyon with
+                exactly one more orthogonal than diagonal river neighbor)
+                can never fire, since such a cell is next to a river and
+                so is already taken by the first rule.
+                 */
+                long open = active;
+                long river = open & canyon & nearWater;
+                river |= open & ((leftNone & rightNone) | (topNone & bottomNone)) & nearMountain;
+                river |= open & nearMountain & nearForest & slope;
+                open &= ~river;
+
+                long lake = open & nearWater & terrain[LOW][index];
+                open &= ~lake;
+
+                long plain = open & (nearPlain | nearWater) & terrain[PLAIN][index];
+                open &= ~plain;
+
+                long mountain = open & terrain[HIGH][index] & nearMountain;
+                open &= ~mountain;
+
+                long lateRiver = open & slope & nearMountain;
+                river |= lateRiver;
+                open &= ~lateRiver;
+
+                long forest = open & (nearForest | nearRiver) & terrain[FOREST][index];
+
+                long changed = river | lake | plain | mountain | forest;
+                for (int k = 0; k < BIOME_PLANES; k++) {
+                    long set = bits(k, RIVER_ID, river)
+                            | bits(k, LAKE_ID, lake)
+                            | bits(k, PLAIN_ID, plain)
+                            | bits(k, MOUNTAIN_ID, mountain)
+                            | bits(k, FOREST_ID, forest);
+                    dst[k][index] = (src[k][index] & ~changed) | set;
+                }
+            }
+        }
+    }
+
+    /**
+     * Chooses how the work of each update is divided up.
+     * @param tileRows Number of rows in a tile
+     * @param tileWords Number of 64 cell words in a row of a tile
+     * @param parallel Whether to update tiles on several threads
+     */
+    public void setTiling(int tileRows, int tileWords, boolean parallel) {
+        if (tileRows < 1 || tileWords < 1) {
+            throw new IllegalArgumentException("Invalid tiling " + tileRows + "x" + tileWords);
+        }
+        this.tileRows = tileRows;
+        this.tileWords = tileWords;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Updates each cell in the grid according to
+     * the cellular automata rules.
+     */
+    @Override
+    public void update() {
+        update(1);
+    }
+
+    /**
+     * Updates each cell in the grid the given number of times.
+     * @param iterations Number of iterations of the automata rules
+     */
+    @Override
+    public void update(int iterations) {
+        if (bands != null && iterations > 0) {
+            updateAsBandsArrive();
+            iterations--;
+            time++;
+        }
+
+        int rowTiles = (size + tileRows - 1) / tileRows;
+        int wordTiles = (words + tileWords - 1) / tileWords;
+
+        for (int n = 0; n < iterations; n++) {
+            IntStream tiles = IntStream.range(0, rowTiles * wordTiles);
+            if (parallel) {
+                tiles = tiles.parallel();
+            }
+            tiles.forEach(t -> updateTile((t / wordTiles) * tileRows, (t % wordTiles) * tileWords));
+
+            long[][] tmp = biome;
+            biome = next;
+            next = tmp;
+            time++;
+        }
+        publisher.publish(this, time);
+    }
+
+    /**
+     * @return The current biome planes, for engines that
+     * step parts of the grid elsewhere
+     */
+    long[][] getBiomePlanes() {
+        awaitTerrain();
+        return biome;
+    }
+
+    /**
+     * @return The terrain planes
+     */
+    long[][] getTerrainPlanes() {
+        awaitTerrain();
+        return terrain;
+    }
+
+    /**
+     * @return Terrain class of a cell, as worked out when the
+     * terrain was generated
+     */
+    @Override
+    public int getTerrainClass(int i, int j) {
+        awaitTerrain();
+        int index = i * words + (j >>> 6);
+        int terrainClass = 0;
+        for (int t = 0; t < TERRAIN_PLANES; t++) {
+            terrainClass |= (int) ((terrain[t][index] >>> j) & 1L) << t;
+        }
+        return terrainClass;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TickUpdate> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+    @Override
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * Advances a single tile by one iteration, reading from the
+     * current biome planes and writing into the next ones.
+     */
+    private void updateTile(int r0, int w0) {
+        int r1 = Math.min(size, r0 + tileRows);
+        int w1 = Math.min(words, w0 + tileWords);
+        step(biome, next, terrain, words, size, r0, r1, w0, w1);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Biome getBiome(int i, int j) {
+        awaitTerrain();
+        int index = i * words + (j >>> 6);
+        int id = 0;
+        for (int k = 0; k < BIOME_PLANES; k++) {
+            id |= (int) ((biome[k][index] >>> j) & 1L) << k;
+        }
+        return BIOMES[id];
+    }
+
+    @Override
+    public double getElevation(int i, int j) {
+        awaitTerrain();
+        return elevation[i * size + j] & 0xFF;
+    }
+
+    /**
+     * Positions are not stored per cell, but worked
+     * out from where the cell is in the grid.
+     * @param i Row in the grid
+     * @param j Column in the grid
+     * @return Region of the grid the cell is in
+     */
+    public Position getPosition(int i, int j) {
+        return CellGrid.computeCellPosition(i, j, size);
+    }
+}
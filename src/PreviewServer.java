@@ -0,0 +1,223 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * A small HTTP server for watching a simulation live in a
+ * browser, instead of opening the images Draw writes one by one.
+ *
+ * Frames are only ever made when a browser asks for one. The page
+ * the server hands out asks for the next frame once it has shown the
+ * previous one, so frames are sent no faster than the browser can
+ * show them. While nobody is watching, the simulation only pays for
+ * a single check per iteration.
+ *
+ * The simulation calls offer() after every update. When a browser
+ * is waiting for a frame, offer() copies the biomes and elevations
+ * of the world, and the copy is drawn and encoded on the server's
+ * own threads while the simulation carries on.
+ */
+public class PreviewServer implements AutoCloseable {
+    // How long a browser waits for the next iteration before it
+    // is sent the latest frame again
+    public static final long FRAME_TIMEOUT_MS = 1000;
+
+    private static final Biome[] BIOMES = Biome.values();
+
+    private static final String PAGE = "<!DOCTYPE html>\n"
+            + "<html><head><title>Biome Evolution</title></head>\n"
+            + "<body style=\"margin:0;background:#000\">\n"
+            + "<img id=\"frame\" style=\"width:100vmin;image-rendering:pixelated\">\n"
+            + "<script>\n"
+            + "const frame = document.getElementById('frame');\n"
+            + "const next = () => { frame.src = '/frame.png?' + Date.now(); };\n"
+            + "frame.onload = () => requestAnimationFrame(next);\n"
+            + "frame.onerror = () => setTimeout(next, 1000);\n"
+            + "next();\n"
+            + "</script>\n"
+            + "</body></html>\n";
+
+    /**
+     * A copy of a world at one point in time.
+     */
+    private static final class Snapshot {
+        final int time;
+        final int size;
+        final byte[] biomes;
+        final byte[] elevations;
+
+        Snapshot(int time, int size, byte[] biomes, byte[] elevations) {
+            this.time = time;
+            this.size = size;
+            this.biomes = biomes;
+            this.elevations = elevations;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ImageEncoder encoder = ImageEncoder.png(1);
+    private final Object lock = new Object();
+
+    private volatile boolean wanted = false;
+    private Snapshot snapshot;
+    private Snapshot encodedSnapshot;
+    private byte[] encoded;
+
+    /**
+     * Starts serving on the local machine.
+     * @param port Port to listen on, 0 for any free port
+     * @throws IOException If the port could not be opened
+     */
+    public PreviewServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "preview");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::page);
+        server.createContext("/frame.png", this::frame);
+        server.start();
+    }
+
+    /**
+     * @return Port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Hands the server the current state of a world, if
+     * anyone is waiting for it. Called by the simulation after
+     * every update.
+     * @param world World that has just been updated
+     * @param time Iteration the world is at
+     */
+    public void offer(World world, int time) {
+        if (!wanted) {
+            return;
+        }
+
+        int size = world.getSize();
+        byte[] biomes = new byte[size * size];
+        byte[] elevations = new byte[size * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                biomes[i * size + j] = (byte) world.getBiome(i, j).ordinal();
+                elevations[i * size + j] = PackedGrid.quantize(world.getElevation(i, j));
+            }
+        }
+
+        synchronized (lock) {
+            snapshot = new Snapshot(time, size, biomes, elevations);
+            wanted = false;
+            lock.notifyAll();
+        }
+    }
+
+    private void page(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        send(exchange, "text/html; charset=utf-8", PAGE.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Waits for the next iteration (or gives up after a while,
+     * if the simulation is slow or has finished) and sends it.
+     */
+    private void frame(HttpExchange exchange) throws IOException {
+        Snapshot latest;
+        synchronized (lock) {
+            Snapshot seen = snapshot;
+            wanted = true;
+            long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+            long wait;
+            while (snapshot == seen && (wait = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            latest = snapshot;
+        }
+
+        if (latest == null) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        send(exchange, "image/png", render(latest));
+    }
+
+    /**
+     * Draws and encodes a snapshot, once, however many
+     * browsers ask for it.
+     */
+    private byte[] render(Snapshot s) throws IOException {
+        synchronized (this) {
+            if (encodedSnapshot == s) {
+                return encoded;
+            }
+        }
+
+        BufferedImage img = new BufferedImage(s.size, s.size, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < s.size; i++) {
+            for (int j = 0; j < s.size; j++) {
+                int c = i * s.size + j;
+                // Same orientation as Draw, with i along the x axis
+                pixels[j * s.size + i] = Draw.colorOf(BIOMES[s.biomes[c]], s.elevations[c] & 0xFF).getRGB();
+            }
+        }
+        byte[] bytes = encoder.encode(img);
+
+        synchronized (this) {
+            if (encodedSnapshot == null || s.time >= encodedSnapshot.time) {
+                encodedSnapshot = s;
+                encoded = bytes;
+            }
+        }
+        return bytes;
+    }
+
+    private static void send(HttpExchange exchange, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Stops serving.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,507 @@
+import java.util.HashMap;
+import java.util.concurrent.Flow;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * A version of the CellGrid that stores the world as a quadtree
+ * and steps it with Gosper's HashLife algorithm.
+ *
+ * Every cell is a (biome, terrain class) pair, the terrain class
+ * being the same one PackedGrid keeps in its terrain planes. Every
+ * block of 2^k by 2^k cells is a node, and identical blocks share a
+ * single node, wherever and whenever they appear. Each node also
+ * remembers what its center looks like some number of iterations
+ * later, so once a region has settled (or repeats a block seen
+ * anywhere else) advancing it is a lookup rather than a computation,
+ * and a large number of iterations can be advanced at once.
+ *
+ * The world is padded up to a power of two with empty cells that,
+ * like border cells, never change. Memory is bounded by maxNodes:
+ * once that many nodes have been created, every remembered node and
+ * result is thrown away and only the current world is kept. If this
+ * happens in the middle of a jump, the jump is abandoned and made
+ * again in smaller jumps. Only building the tree, and a single
+ * iteration made straight after starting over, may go past the limit.
+ */
+public class QuadTreeGrid implements World {
+    public static final int MAX_NODES = 1 << 20;
+
+    private static final Biome[] BIOMES = Biome.values();
+    private static final int BIOME_BITS = 3;
+    private static final int BIOME_MASK = (1 << BIOME_BITS) - 1;
+
+    private static final int FOREST_ID = Biome.FOREST.ordinal();
+    private static final int MOUNTAIN_ID = Biome.MOUNTAIN.ordinal();
+    private static final int PLAIN_ID = Biome.PLAIN.ordinal();
+    private static final int LAKE_ID = Biome.LAKE.ordinal();
+    private static final int RIVER_ID = Biome.RIVER.ordinal();
+    private static final int NONE_ID = Biome.NONE.ordinal();
+
+    /**
+     * Thrown when the node table fills up in the middle of a jump.
+     */
+    private static final class NodeLimitReached extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NodeLimitReached() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A square block of cells, either a single cell (level 0)
+     * or four blocks of the level below.
+     */
+    private static final class Node {
+        final int level;
+        final Node nw, ne, sw, se;
+        final int value;
+        final int hash;
+
+        // The center of this block, resultLog^2 iterations later
+        Node result;
+        int resultLog = -1;
+
+        Node(int value) {
+            this.level = 0;
+            this.nw = this.ne = this.sw = this.se = null;
+            this.value = value;
+            this.hash = value * 0x9E3779B1;
+        }
+
+        Node(Node nw, Node ne, Node sw, Node se) {
+            this.level = nw.level + 1;
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            this.value = 0;
+            int h = nw.hash;
+            h = h * 31 + ne.hash;
+            h = h * 31 + sw.hash;
+            h = h * 31 + se.hash;
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Node)) {
+                return false;
+            }
+            Node n = (Node) o;
+            return level == n.level && value == n.value
+                    && nw == n.nw && ne == n.ne && sw == n.sw && se == n.se;
+        }
+    }
+
+    private final int size;
+    private final int levels;
+    private final int maxNodes;
+    private final byte[] elevation;
+    private final Node[] leaves = new Node[1 << (BIOME_BITS + PackedGrid.TERRAIN_PLANES)];
+    private HashMap<Node, Node> nodes = new HashMap<>();
+    private boolean bounded = false;
+    private Node root;
+    private volatile byte[] plane;
+
+    private final TickPublisher publisher = new TickPublisher();
+    private int time = 0;
+
+    public QuadTreeGrid(World source) {
+        this(source, MAX_NODES);
+    }
+
+    /**
+     * Builds the quadtree from the current state of another
+     * world, so that it continues exactly where it left off.
+     * @param source World to copy biomes and elevation from
+     * @param maxNodes Number of nodes to remember before starting over
+     */
+    public QuadTreeGrid(World source, int maxNodes) {
+        this.size = source.getSize();
+        this.maxNodes = maxNodes;
+        this.elevation = new byte[size * size];
+        this.time = source.getTime();
+
+        int levels = 2;
+        while ((1 << levels) < size) {
+            levels++;
+        }
+        this.levels = levels;
+
+        int side = 1 << levels;
+        int[] cells = new int[side * side];
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                if (i >= size || j >= size) {
+                    cells[i * side + j] = NONE_ID;
+                    continue;
+                }
+
+                elevation[i * size + j] = PackedGrid.quantize(source.getElevation(i, j));
+                int terrainClass = source.getTerrainClass(i, j);
+                cells[i * side + j] = source.getBiome(i, j).ordinal() | (terrainClass << BIOME_BITS);
+            }
+        }
+        // Building the tree is the one time the limit is ignored
+        this.root = build(cells, side, levels, 0, 0);
+        this.bounded = true;
+    }
+
+    private Node build(int[] cells, int side, int level, int i, int j) {
+        if (level == 0) {
+            return leaf(cells[i * side + j]);
+        }
+        int half = 1 << (level - 1);
+        return node(build(cells, side, level - 1, i, j),
+                build(cells, side, level - 1, i, j + half),
+                build(cells, side, level - 1, i + half, j),
+                build(cells, side, level - 1, i + half, j + half));
+    }
+
+    private Node leaf(int value) {
+        Node n = leaves[value];
+        if (n == null) {
+            n = new Node(value);
+            leaves[value] = n;
+        }
+        return n;
+    }
+
+    /**
+     * @return The one shared node made of the four given blocks
+     */
+    private Node node(Node nw, Node ne, Node sw, Node se) {
+        Node n = new Node(nw, ne, sw, se);
+        Node existing = nodes.putIfAbsent(n, n);
+        if (existing != null) {
+            return existing;
+        }
+        if (bounded && nodes.size() >= maxNodes) {
+            throw new NodeLimitReached();
+        }
+        return n;
+    }
+
+    /**
+     * @return A block of the given level made only of empty padding cells
+     */
+    private Node empty(int level) {
+        if (level == 0) {
+            return leaf(NONE_ID);
+        }
+        Node n = empty(level - 1);
+        return node(n, n, n, n);
+    }
+
+    /**
+     * @return The center half of a block, as it is now
+     */
+    private Node center(Node n) {
+        return node(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw);
+    }
+
+    /**
+     * Works out the center half of a block 2^log iterations later,
+     * remembering the result on the block. The center of a block of
+     * level k depends only on the block itself for up to 2^(k-2)
+     * iterations, so log can be at most level - 2.
+     */
+    private Node successor(Node n, int log) {
+        if (n.resultLog == log) {
+            return n.result;
+        }
+
+        Node result;
+        if (n.level == 2) {
+            result = step(n);
+        } else {
+            // The nine overlapping blocks of the level below
+            Node n00 = n.nw;
+            Node n01 = node(n.nw.ne, n.ne.nw, n.nw.se, n.ne.sw);
+            Node n02 = n.ne;
+            Node n10 = node(n.nw.sw, n.nw.se, n.sw.nw, n.sw.ne);
+            Node n11 = node(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw);
+            Node n12 = node(n.ne.sw, n.ne.se, n.se.nw, n.se.ne);
+            Node n20 = n.sw;
+            Node n21 = node(n.sw.ne, n.se.nw, n.sw.se, n.se.sw);
+            Node n22 = n.se;
+
+            /*
+            At full speed both halves of the step advance the blocks,
+            otherwise the first half only recenters them and the
+            second half does all of the advancing.
+             */
+            boolean full = log == n.level - 2;
+            int next = full ? log - 1 : log;
+            Node r00 = full ? successor(n00, next) : center(n00);
+            Node r01 = full ? successor(n01, next) : center(n01);
+            Node r02 = full ? successor(n02, next) : center(n02);
+            Node r10 = full ? successor(n10, next) : center(n10);
+            Node r11 = full ? successor(n11, next) : center(n11);
+            Node r12 = full ? successor(n12, next) : center(n12);
+            Node r20 = full ? successor(n20, next) : center(n20);
+            Node r21 = full ? successor(n21, next) : center(n21);
+            Node r22 = full ? successor(n22, next) : center(n22);
+
+            result = node(
+                    successor(node(r00, r01, r10, r11), next),
+                    successor(node(r01, r02, r11, r12), next),
+                    successor(node(r10, r11, r20, r21), next),
+                    successor(node(r11, r12, r21, r22), next));
+        }
+
+        n.result = result;
+        n.resultLog = log;
+        return result;
+    }
+
+    /**
+     * Applies one iteration of the rules to the center
+     * 2x2 cells of a 4x4 block.
+     */
+    private Node step(Node n) {
+        int[][] c = new int[4][4];
+        Node[] quadrants = {n.nw, n.ne, n.sw, n.se};
+        for (int q = 0; q < 4; q++) {
+            int i = (q / 2) * 2;
+            int j = (q % 2) * 2;
+            c[i][j] = quadrants[q].nw.value;
+            c[i][j+1] = quadrants[q].ne.value;
+            c[i+1][j] = quadrants[q].sw.value;
+            c[i+1][j+1] = quadrants[q].se.value;
+        }
+        return node(leaf(rule(c, 1, 1)), leaf(rule(c, 1, 2)),
+                leaf(rule(c, 2, 1)), leaf(rule(c, 2, 2)));
+    }
+
+    /**
+     * The rules of generateNewCellState(), for a cell given as
+     * a (biome, terrain class) pair. See PackedGrid.step() for why
+     * the third rule is left out.
+     */
+    private static int rule(int[][] c, int i, int j) {
+        int cell = c[i][j];
+        int terrainClass = cell >>> BIOME_BITS;
+        if ((terrainClass & (1 << PackedGrid.ACTIVE)) == 0) {
+            return cell;
+        }
+
+        int near = 0;
+        for (int di = -1; di <= 1; di++) {
+            for (int dj = -1; dj <= 1; dj++) {
+                if (di != 0 || dj != 0) {
+                    near |= 1 << (c[i+di][j+dj] & BIOME_MASK);
+                }
+            }
+        }
+        boolean nearRiver = (near & (1 << RIVER_ID)) != 0;
+        boolean nearWater = nearRiver || (near & (1 << LAKE_ID)) != 0;
+        boolean nearMountain = (near & (1 << MOUNTAIN_ID)) != 0;
+        boolean nearForest = (near & (1 << FOREST_ID)) != 0;
+        boolean nearPlain = (near & (1 << PLAIN_ID)) != 0;
+        boolean canyon = (terrainClass & (1 << PackedGrid.CANYON)) != 0;
+        boolean slope = (terrainClass & (1 << PackedGrid.SLOPE)) != 0;
+
+        boolean leftRightNone = (c[i-1][j] & BIOME_MASK) == NONE_ID && (c[i+1][j] & BIOME_MASK) == NONE_ID;
+        boolean topBottomNone = (c[i][j-1] & BIOME_MASK) == NONE_ID && (c[i][j+1] & BIOME_MASK) == NONE_ID;
+
+        int biome = cell & BIOME_MASK;
+        if (canyon && nearWater) {
+            biome = RIVER_ID;
+        } else if ((leftRightNone || topBottomNone) && nearMountain) {
+            biome = RIVER_ID;
+        } else if (nearMountain && nearForest && slope) {
+            biome = RIVER_ID;
+        } else if (nearWater && (terrainClass & (1 << PackedGrid.LOW)) != 0) {
+            biome = LAKE_ID;
+        } else if ((nearPlain || nearWater) && (terrainClass & (1 << PackedGrid.PLAIN)) != 0) {
+            biome = PLAIN_ID;
+        } else if ((terrainClass & (1 << PackedGrid.HIGH)) != 0 && nearMountain) {
+            biome = MOUNTAIN_ID;
+        } else if (slope && nearMountain) {
+            biome = RIVER_ID;
+        } else if ((nearForest || nearRiver) && (terrainClass & (1 << PackedGrid.FOREST)) != 0) {
+            biome = FOREST_ID;
+        }
+        return biome | (terrainClass << BIOME_BITS);
+    }
+
+    /**
+     * Updates each cell in the grid according to
+     * the cellular automata rules.
+     */
+    @Override
+    public void update() {
+        update(1);
+    }
+
+    /**
+     * Updates each cell in the grid the given number of times,
+     * in as few (power of two sized) jumps as the node limit allows.
+     * @param iterations Number of iterations of the automata rules
+     */
+    @Override
+    public void update(int iterations) {
+        int maxLog = levels - 1;
+        while (iterations > 0) {
+            int log = 0;
+            while (log < maxLog && (2 << log) <= iterations) {
+                log++;
+            }
+
+            try {
+                // Surround the world with padding so that its
+                // center is the whole of the current world
+                Node pad = empty(levels - 1);
+                Node outer = node(
+                        node(pad, pad, pad, root.nw),
+                        node(pad, pad, root.ne, pad),
+                        node(pad, root.sw, pad, pad),
+                        node(root.se, pad, pad, pad));
+                root = successor(outer, log);
+            } catch (NodeLimitReached e) {
+                forget();
+                if (log > 0) {
+                    maxLog = log - 1;
+                } else {
+                    bounded = false;
+                }
+                continue;
+            }
+            bounded = true;
+
+            iterations -= 1 << log;
+            time += 1 << log;
+            if (nodes.size() > maxNodes) {
+                forget();
+            }
+        }
+
+        plane = null;
+        publisher.publish(this, time);
+    }
+
+    /**
+     * Throws away every remembered node and result,
+     * keeping only the current world.
+     */
+    private void forget() {
+        nodes = new HashMap<>();
+        boolean wasBounded = bounded;
+        bounded = false;
+        root = copy(root);
+        bounded = wasBounded;
+    }
+
+    /**
+     * @return An equal tree made of fresh nodes in the current node
+     * table, with no remembered results
+     */
+    private Node copy(Node n) {
+        if (n.level == 0) {
+            return n;
+        }
+        return node(copy(n.nw), copy(n.ne), copy(n.sw), copy(n.se));
+    }
+
+    /**
+     * @return Number of distinct blocks currently remembered
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TickUpdate> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+    @Override
+    public int getTime() {
+        return time;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Biome getBiome(int i, int j) {
+        byte[] cells = plane;
+        if (cells == null) {
+            cells = flatten();
+        }
+        return BIOMES[cells[i * size + j]];
+    }
+
+    /**
+     * Lays the current world out as a plane of biome ordinals,
+     * once, however many threads are reading it.
+     */
+    private synchronized byte[] flatten() {
+        if (plane == null) {
+            byte[] cells = new byte[size * size];
+            flatten(root, cells, 0, 0);
+            plane = cells;
+        }
+        return plane;
+    }
+
+    private void flatten(Node n, byte[] cells, int i, int j) {
+        if (i >= size || j >= size) {
+            return;
+        }
+        if (n.level == 0) {
+            cells[i * size + j] = (byte) (n.value & BIOME_MASK);
+            return;
+        }
+        int half = 1 << (n.level - 1);
+        flatten(n.nw, cells, i, j);
+        flatten(n.ne, cells, i, j + half);
+        flatten(n.sw, cells, i + half, j);
+        flatten(n.se, cells, i + half, j + half);
+    }
+
+    /**
+     * @return Terrain class of a cell, which never changes
+     */
+    @Override
+    public int getTerrainClass(int i, int j) {
+        Node n = root;
+        while (n.level > 0) {
+            int half = 1 << (n.level - 1);
+            if (i < half) {
+                n = j < half ? n.nw : n.ne;
+            } else {
+                n = j < half ? n.sw : n.se;
+                i -= half;
+            }
+            if (j >= half) {
+                j -= half;
+            }
+        }
+        return n.value >>> BIOME_BITS;
+    }
+
+    @Override
+    public double getElevation(int i, int j) {
+        return elevation[i * size + j] & 0xFF;
+    }
+}
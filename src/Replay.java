@@ -0,0 +1,336 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * Replays the reference engine for a few fixed seeds and sizes,
+ * and checks that every other engine produces exactly the same
+ * worlds, iteration by iteration.
+ *
+ * Each world is boiled down to a hash of its biomes. The hashes of
+ * the reference engine can be recorded to a golden file, so that
+ * changes to the reference rules themselves are caught as well. When
+ * an engine does not match, the first iteration it differs at is
+ * replayed on the reference engine to find the first cell that
+ * differs.
+ *
+ * Packed grids generated directly place their seeds differently,
+ * so they are checked against a copy of one taken once its terrain
+ * is finished, which is updated without any of the pipelining of
+ * the first update. Both ways of seeding are also checked to place
+ * exactly the number of seeds asked for.
+ *
+ * Run as: java Replay [record FILE | verify FILE]
+ * With no arguments the reference hashes are worked out on the spot.
+ * Exits with status 1 if any engine does not match.
+ */
+public class Replay {
+
+    /**
+     * A world to replay: the arguments of the reproducible
+     * CellGrid constructor, and how many iterations to run.
+     */
+    private static final class Case {
+        final int size;
+        final int terrainSeed;
+        final int lakeSeeds;
+        final int mountainSeeds;
+        final int iterations;
+
+        Case(int size, int terrainSeed, int lakeSeeds, int mountainSeeds, int iterations) {
+            this.size = size;
+            this.terrainSeed = terrainSeed;
+            this.lakeSeeds = lakeSeeds;
+            this.mountainSeeds = mountainSeeds;
+            this.iterations = iterations;
+        }
+
+        CellGrid reference() {
+            return new CellGrid(size, terrainSeed, lakeSeeds, mountainSeeds);
+        }
+
+        PackedGrid direct() {
+            return new PackedGrid(size, terrainSeed, lakeSeeds, mountainSeeds);
+        }
+
+        PackedGrid settled() {
+            return new PackedGrid(direct());
+        }
+
+        @Override
+        public String toString() {
+            return size + " " + terrainSeed + " " + lakeSeeds + " " + mountainSeeds + " " + iterations;
+        }
+    }
+
+    private interface Factory {
+        World create(Case c) throws IOException;
+    }
+
+    /**
+     * An engine to check, built from a fresh reference world and
+     * advanced stride iterations at a time between checks.
+     */
+    private static final class Engine {
+        final String name;
+        final int stride;
+        final Factory factory;
+
+        Engine(String name, int stride, Factory factory) {
+            this.name = name;
+            this.stride = stride;
+            this.factory = factory;
+        }
+    }
+
+    // Sizes that are and are not a multiple of 64 (one word
+    // of a packed row) or a power of two (a quadtree), and a
+    // terrain whose last band has no lake candidates
+    private static final Case[] CASES = {
+            new Case(64, 1, 20, 20, 200),
+            new Case(150, 7, 60, 60, 200),
+            new Case(300, 42, 250, 250, 120),
+            new Case(128, 5, 64, 64, 100),
+    };
+
+    private static final Engine[] ENGINES = {
+            new Engine("packed", 1, c -> new PackedGrid(c.reference())),
+            new Engine("tiled", 1, c -> tiled(c, 16, 1, false)),
+            new Engine("parallel", 1, c -> tiled(c, 64, 8, true)),
+            new Engine("tiled-jump", 16, c -> tiled(c, 64, 8, true)),
+            new Engine("quadtree", 1, c -> new QuadTreeGrid(c.reference())),
+            new Engine("quadtree-jump", 64, c -> new QuadTreeGrid(c.reference(), 1 << 12)),
+    };
+
+    // Checked against the settled copy of a directly generated
+    // grid, which a distributed grid generates in strips
+    private static final Engine[] DIRECT_ENGINES = {
+            new Engine("direct", 1, Case::direct),
+            new Engine("direct-jump", 16, Case::direct),
+            new Engine("direct-quadtree", 16, c -> new QuadTreeGrid(c.direct())),
+            new Engine("distributed", 4, c -> new DistributedGrid(c.size, c.terrainSeed, c.lakeSeeds,
+                    c.mountainSeeds, 3)),
+    };
+
+    public static void main(String[] args) throws IOException {
+        String mode = args.length > 0 ? args[0] : "";
+        List<long[][]> golden = new ArrayList<>();
+
+        if (mode.equals("verify")) {
+            golden = read(new File(args[1]));
+        } else {
+            for (Case c : CASES) {
+                golden.add(new long[][] {record(c, Case::reference), record(c, Case::settled)});
+            }
+        }
+
+        if (mode.equals("record")) {
+            write(new File(args[1]), golden);
+            System.out.println("Recorded " + CASES.length + " worlds to " + args[1]);
+            return;
+        }
+
+        boolean ok = true;
+        for (int k = 0; k < CASES.length; k++) {
+            Case c = CASES[k];
+            long[] expected = golden.get(k)[0];
+            long[] expectedDirect = golden.get(k)[1];
+            System.out.println("World " + c);
+            ok &= checkSeeds(c);
+            if (mode.equals("verify")) {
+                ok &= check(c, expected, "reference", 1, c.reference(), Case::reference);
+                ok &= check(c, expectedDirect, "settled", 1, c.settled(), Case::settled);
+            }
+            for (Engine engine : ENGINES) {
+                ok &= check(c, expected, engine.name, engine.stride, engine.factory.create(c), Case::reference);
+            }
+            for (Engine engine : DIRECT_ENGINES) {
+                ok &= check(c, expectedDirect, engine.name, engine.stride, engine.factory.create(c), Case::settled);
+            }
+        }
+
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    private static PackedGrid tiled(Case c, int tileRows, int tileWords, boolean parallel) {
+        PackedGrid packed = new PackedGrid(c.reference());
+        packed.setTiling(tileRows, tileWords, parallel);
+        return packed;
+    }
+
+    /**
+     * @return Hash of the biomes of a reference world
+     * after each iteration, starting with the seeded world
+     */
+    private static long[] record(Case c, Factory reference) throws IOException {
+        long[] hashes = new long[c.iterations + 1];
+        World world = reference.create(c);
+        hashes[0] = hash(world);
+        for (int t = 1; t <= c.iterations; t++) {
+            world.update();
+            hashes[t] = hash(world);
+        }
+        return hashes;
+    }
+
+    /**
+     * Runs an engine and compares it against the expected
+     * hashes every stride iterations.
+     * @return Whether every hash matched
+     */
+    private static boolean check(Case c, long[] expected, String name, int stride, World world,
+                                 Factory reference) throws IOException {
+        try {
+            for (int t = 0; t <= c.iterations; t += stride) {
+                if (t > 0) {
+                    world.update(stride);
+                }
+                if (hash(world) != expected[t]) {
+                    System.out.println("  " + name + ": differs at iteration " + t + ", " + firstDifference(c, t, world, reference));
+                    return false;
+                }
+            }
+            System.out.println("  " + name + ": ok");
+            return true;
+        } finally {
+            world.close();
+        }
+    }
+
+    /**
+     * Replays a reference world up to an iteration and
+     * describes the first cell the given world differs in.
+     */
+    private static String firstDifference(Case c, int iterations, World world, Factory factory) throws IOException {
+        World reference = factory.create(c);
+        for (int t = 0; t < iterations; t++) {
+            reference.update();
+        }
+        for (int i = 0; i < c.size; i++) {
+            for (int j = 0; j < c.size; j++) {
+                Biome want = reference.getBiome(i, j);
+                Biome got = world.getBiome(i, j);
+                if (want != got) {
+                    return "first at cell (" + i + ", " + j + "): expected " + want + ", got " + got;
+                }
+            }
+        }
+        return "but matches a fresh reference run, so the reference itself has changed";
+    }
+
+    /**
+     * Checks that both ways of seeding a world place exactly the
+     * number of lakes and mountains asked for, or every candidate
+     * cell if the terrain has fewer.
+     * @return Whether both placed the right number
+     */
+    private static boolean checkSeeds(Case c) {
+        PerlinNoise noise = new PerlinNoise(c.terrainSeed);
+        double[] elevations = new double[c.size * c.size];
+        for (int i = 0; i < c.size; i++) {
+            for (int j = 0; j < c.size; j++) {
+                elevations[i * c.size + j] = CellGrid.computeCellElevation(noise, i, j);
+            }
+        }
+        SeedIndex index = new SeedIndex(elevations);
+        int lakes = Math.min(c.lakeSeeds, index.getLakeCandidates());
+        int mountains = Math.min(c.mountainSeeds, index.getMountainCandidates());
+
+        boolean ok = true;
+        World[] worlds = {c.reference(), c.direct()};
+        String[] names = {"reference", "direct"};
+        for (int w = 0; w < worlds.length; w++) {
+            int placedLakes = count(worlds[w], Biome.LAKE);
+            int placedMountains = count(worlds[w], Biome.MOUNTAIN);
+            if (placedLakes != lakes || placedMountains != mountains) {
+                System.out.println("  seeds: " + names[w] + " placed " + placedLakes + " of " + lakes
+                        + " lakes and " + placedMountains + " of " + mountains + " mountains");
+                ok = false;
+            }
+            worlds[w].close();
+        }
+        if (ok) {
+            System.out.println("  seeds: ok");
+        }
+        return ok;
+    }
+
+    private static int count(World world, Biome b) {
+        int count = 0;
+        for (int i = 0; i < world.getSize(); i++) {
+            for (int j = 0; j < world.getSize(); j++) {
+                if (world.getBiome(i, j) == b) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 64 bit FNV-1a hash of the biome of every cell, row by row
+     */
+    public static long hash(World world) {
+        int size = world.getSize();
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                h ^= world.getBiome(i, j).ordinal();
+                h *= 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Golden files hold, for each world, a line with its size,
+     * seeds and number of iterations, then one hash per line for
+     * the reference engine followed by as many for the settled
+     * directly generated grid.
+     */
+    private static void write(File file, List<long[][]> golden) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            for (int k = 0; k < CASES.length; k++) {
+                out.println(CASES[k]);
+                for (long[] hashes : golden.get(k)) {
+                    for (long h : hashes) {
+                        out.println(Long.toHexString(h));
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<long[][]> read(File file) throws IOException {
+        List<long[][]> golden = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            for (Case c : CASES) {
+                String header = in.readLine();
+                if (!c.toString().equals(header)) {
+                    throw new IOException("Expected world " + c + " in " + file + " but found " + header);
+                }
+                long[][] hashes = new long[2][c.iterations + 1];
+                for (long[] series : hashes) {
+                    for (int t = 0; t <= c.iterations; t++) {
+                        series[t] = Long.parseUnsignedLong(in.readLine(), 16);
+                    }
+                }
+                golden.add(hashes);
+            }
+        }
+        return golden;
+    }
+}
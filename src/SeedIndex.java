@@ -0,0 +1,157 @@
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * An index of the cells of a terrain that can be seeded with a
+ * biome before the automata iterations start: lakes below an
+ * elevation of 80, and mountains above 180.
+ *
+ * The index is built once, in parallel, and then any exact number
+ * of distinct seed cells can be drawn from it without redrawing
+ * cells that turn out to be unsuitable. Both the index and the
+ * samples depend only on the terrain and the seed given, never on
+ * the number of threads.
+ */
+public class SeedIndex {
+    public static final double LAKE_BELOW = 80;
+    public static final double MOUNTAIN_ABOVE = 180;
+
+    // Number of cells each thread indexes at a time
+    private static final int BLOCK = 1 << 14;
+
+    private final int[] lakes;
+    private final int[] mountains;
+
+    /**
+     * @param elevations Elevation of every cell, in any fixed order
+     *                   (such as i * size + j)
+     */
+    public SeedIndex(double[] elevations) {
+        this(elevations, 0, elevations.length);
+    }
+
+    /**
+     * Indexes part of a terrain.
+     * @param elevations Elevation of every cell
+     * @param from Index of the first cell to index
+     * @param to Index after the last cell to index
+     */
+    public SeedIndex(double[] elevations, int from, int to) {
+        int blocks = (to - from + BLOCK - 1) / BLOCK;
+        int[] lakeCounts = new int[blocks + 1];
+        int[] mountainCounts = new int[blocks + 1];
+
+        // Count the candidates in each block...
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int end = Math.min(to, from + (b + 1) * BLOCK);
+            for (int c = from + b * BLOCK; c < end; c++) {
+                double e = elevations[c];
+                if (e < LAKE_BELOW) {
+                    lakeCounts[b + 1]++;
+                } else if (e > MOUNTAIN_ABOVE) {
+                    mountainCounts[b + 1]++;
+                }
+            }
+        });
+
+        // ...work out where each block's candidates go...
+        for (int b = 0; b < blocks; b++) {
+            lakeCounts[b + 1] += lakeCounts[b];
+            mountainCounts[b + 1] += mountainCounts[b];
+        }
+        this.lakes = new int[lakeCounts[blocks]];
+        this.mountains = new int[mountainCounts[blocks]];
+
+        // ...and then fill them in, in order
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int end = Math.min(to, from + (b + 1) * BLOCK);
+            int lake = lakeCounts[b];
+            int mountain = mountainCounts[b];
+            for (int c = from + b * BLOCK; c < end; c++) {
+                double e = elevations[c];
+                if (e < LAKE_BELOW) {
+                    lakes[lake++] = c;
+                } else if (e > MOUNTAIN_ABOVE) {
+                    mountains[mountain++] = c;
+                }
+            }
+        });
+    }
+
+    public int getLakeCandidates() {
+        return lakes.length;
+    }
+
+    public int getMountainCandidates() {
+        return mountains.length;
+    }
+
+    /**
+     * @param count Number of lake seeds wanted
+     * @param seed Seed for choosing between the candidates
+     * @return Indices of count distinct lake candidates, or all of
+     * them if there are fewer than that
+     */
+    public int[] sampleLakes(int count, long seed) {
+        return sample(lakes, count, seed);
+    }
+
+    /**
+     * @param count Number of mountain seeds wanted
+     * @param seed Seed for choosing between the candidates
+     * @return Indices of count distinct mountain candidates, or all
+     * of them if there are fewer than that
+     */
+    public int[] sampleMountains(int count, long seed) {
+        return sample(mountains, count, ~seed);
+    }
+
+    /**
+     * Works out how many seeds each of several separately indexed
+     * parts of a terrain gets. Each part gets its own share if it has
+     * room for it, and whatever the parts have no room for goes to the
+     * first parts with candidates to spare.
+     * @param shares Number of seeds each part would get on its own
+     * @param candidates Number of candidates each part has
+     * @return Number of seeds for each part
+     */
+    public static int[] distribute(int[] shares, int[] candidates) {
+        int[] counts = new int[shares.length];
+        int left = 0;
+        for (int p = 0; p < shares.length; p++) {
+            counts[p] = Math.min(shares[p], candidates[p]);
+            left += shares[p] - counts[p];
+        }
+        for (int p = 0; p < shares.length && left > 0; p++) {
+            int extra = Math.min(left, candidates[p] - counts[p]);
+            counts[p] += extra;
+            left -= extra;
+        }
+        return counts;
+    }
+
+    /**
+     * Draws distinct candidates with a partial Fisher-Yates shuffle,
+     * which touches every candidate at most once.
+     */
+    private static int[] sample(int[] candidates, int count, long seed) {
+        int[] pool = candidates.clone();
+        int n = Math.min(count, pool.length);
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int k = 0; k < n; k++) {
+            int pick = k + random.nextInt(pool.length - k);
+            int tmp = pool[k];
+            pool[k] = pool[pick];
+            pool[pick] = tmp;
+        }
+        int[] chosen = new int[n];
+        System.arraycopy(pool, 0, chosen, 0, n);
+        return chosen;
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.stream.IntStream;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * A worker process of a DistributedGrid. Each worker generates and
+ * owns a horizontal strip of rows of the packed grid, plus one halo
+ * row above and below it holding a copy of its neighbors' edge rows.
+ *
+ * Workers talk to the coordinator, which tells them which rows they
+ * own and how many seeds to plant, tells them when to step and
+ * collects their rows when they are read, and directly to the workers owning the
+ * strips above and below them, with whom they swap edge rows before
+ * every iteration. All of it goes over local sockets.
+ *
+ * Run as: java StripWorker coordinatorPort
+ */
+public class StripWorker {
+    // Commands sent by the coordinator
+    public static final int STEP = 1;
+    public static final int GATHER = 2;
+    public static final int QUIT = 3;
+
+    // Replies sent back to it
+    public static final int READY = 10;
+    public static final int DONE = 11;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ServerSocket below;
+
+    private int words;
+    private int rows;
+    private long[][] biome;
+    private long[][] next;
+    private long[][] terrain;
+
+    private DataInputStream upIn;
+    private DataOutputStream upOut;
+    private DataInputStream downIn;
+    private DataOutputStream downOut;
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        InetAddress local = InetAddress.getLoopbackAddress();
+        try (Socket coordinator = new Socket(local, port);
+             ServerSocket below = new ServerSocket(0, 1, local)) {
+            coordinator.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+
+            // The worker below us connects here to swap rows
+            out.writeInt(below.getLocalPort());
+            out.flush();
+
+            new StripWorker(in, out, below).run();
+        }
+    }
+
+    private StripWorker(DataInputStream in, DataOutputStream out, ServerSocket below) {
+        this.in = in;
+        this.out = out;
+        this.below = below;
+    }
+
+    /**
+     * Generates the strip, agrees with the coordinator how
+     * many seeds to plant in it, connects to the neighboring
+     * workers and then follows the coordinator's commands
+     * until told to quit.
+     */
+    private void run() throws IOException {
+        int size = in.readInt();
+        int terrainSeed = in.readInt();
+        int rowFrom = in.readInt();
+        int rowTo = in.readInt();
+        int abovePort = in.readInt();
+        boolean hasBelow = in.readBoolean();
+
+        // Local row 0 is the halo above, grid row rowFrom - 1
+        words = PackedGrid.wordsPerRow(size);
+        rows = rowTo - rowFrom + 2;
+        biome = new long[PackedGrid.BIOME_PLANES][rows * words];
+        next = new long[PackedGrid.BIOME_PLANES][rows * words];
+        terrain = new long[PackedGrid.TERRAIN_PLANES][rows * words];
+
+        // Bands that straddle two strips are generated by both
+        // workers, each keeping only its own rows of them
+        PerlinNoise noise = new PerlinNoise(terrainSeed);
+        int first = rowFrom / PackedGrid.BAND_ROWS;
+        int last = (rowTo - 1) / PackedGrid.BAND_ROWS;
+        SeedIndex[] indices = new SeedIndex[last - first + 1];
+        IntStream.rangeClosed(first, last).parallel().forEach(b ->
+                indices[b - first] = PackedGrid.generateBand(noise, size, b, biome, terrain, null,
+                        rowFrom, rowTo, rowFrom - 1));
+
+        for (SeedIndex index : indices) {
+            out.writeInt(index.getLakeCandidates());
+            out.writeInt(index.getMountainCandidates());
+        }
+        out.flush();
+        for (int b = first; b <= last; b++) {
+            SeedIndex index = indices[b - first];
+            long seed = PackedGrid.bandSeed(terrainSeed, b);
+            int lakes = in.readInt();
+            int mountains = in.readInt();
+            PackedGrid.plant(size, b, index.sampleLakes(lakes, seed), 0, Biome.LAKE.ordinal(),
+                    biome, rowFrom, rowTo, rowFrom - 1);
+            PackedGrid.plant(size, b, index.sampleMountains(mountains, seed), 0, Biome.MOUNTAIN.ordinal(),
+                    biome, rowFrom, rowTo, rowFrom - 1);
+        }
+
+        // Connect up first, then wait for the worker below to connect
+        // to us, so that the chain of workers can never deadlock
+        if (abovePort >= 0) {
+            Socket up = new Socket(InetAddress.getLoopbackAddress(), abovePort);
+            up.setTcpNoDelay(true);
+            upIn = new DataInputStream(new BufferedInputStream(up.getInputStream()));
+            upOut = new DataOutputStream(new BufferedOutputStream(up.getOutputStream()));
+        }
+        if (hasBelow) {
+            Socket down = below.accept();
+            down.setTcpNoDelay(true);
+            downIn = new DataInputStream(new BufferedInputStream(down.getInputStream()));
+            downOut = new DataOutputStream(new BufferedOutputStream(down.getOutputStream()));
+        }
+        out.writeInt(READY);
+        out.flush();
+
+        while (true) {
+            int command = in.readInt();
+            if (command == STEP) {
+                int iterations = in.readInt();
+                for (int t = 0; t < iterations; t++) {
+                    step();
+                }
+                out.writeInt(DONE);
+                out.flush();
+            } else if (command == GATHER) {
+                for (int r = 1; r < rows - 1; r++) {
+                    writeRow(out, biome, words, r);
+                }
+                out.flush();
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Swaps edge rows with the neighboring workers, then
+     * applies one iteration of the rules to the owned rows.
+     */
+    private void step() throws IOException {
+        if (upOut != null) {
+            writeRow(upOut, biome, words, 1);
+            upOut.flush();
+        }
+        if (downOut != null) {
+            writeRow(downOut, biome, words, rows - 2);
+            downOut.flush();
+        }
+        if (upIn != null) {
+            readRow(upIn, biome, words, 0);
+        }
+        if (downIn != null) {
+            readRow(downIn, biome, words, rows - 1);
+        }
+
+        PackedGrid.step(biome, next, terrain, words, rows, 1, rows - 1, 0, words);
+        long[][] tmp = biome;
+        biome = next;
+        next = tmp;
+    }
+
+    /**
+     * Reads one row of each of the given planes.
+     */
+    static void readRow(DataInputStream in, long[][] planes, int words, int row) throws IOException {
+        for (long[] plane : planes) {
+            for (int w = 0; w < words; w++) {
+                plane[row * words + w] = in.readLong();
+            }
+        }
+    }
+
+    /**
+     * Writes one row of each of the given planes.
+     */
+    static void writeRow(DataOutputStream out, long[][] planes, int words, int row) throws IOException {
+        for (long[] plane : planes) {
+            for (int w = 0; w < words; w++) {
+                out.writeLong(plane[row * words + w]);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * Publishes the changes a world goes through to any number of
+ * subscribers, so that they can follow a simulation without
+ * reading every cell after every iteration.
+ *
+ * Each subscriber has a bounded buffer of updates. When a
+ * subscriber falls behind and its buffer fills up, publishing
+ * blocks until it catches up, so a slow consumer slows the
+ * simulation down rather than losing updates.
+ *
+ * The first update after a subscriber joins is a keyframe, and
+ * so is every update after a set number of iterations, so that
+ * a subscriber never has to replay a long history of changes.
+ * A subscriber that joins while an update is being published may
+ * see one change set before its keyframe, and should ignore it.
+ */
+public class TickPublisher implements AutoCloseable {
+    public static final int KEYFRAME_INTERVAL = 100;
+
+    private final SubmissionPublisher<TickUpdate> publisher;
+    private final int keyframeInterval;
+    private final AtomicBoolean joined = new AtomicBoolean(false);
+    private byte[] previous;
+    private int lastKeyframe = 0;
+
+    public TickPublisher() {
+        this(Flow.defaultBufferSize(), KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * @param bufferSize Maximum number of updates held for each subscriber
+     * @param keyframeInterval Number of iterations between keyframes
+     */
+    public TickPublisher(int bufferSize, int keyframeInterval) {
+        this.publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), bufferSize);
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * @param subscriber Consumer of the updates, starting
+     *                   from the next one published
+     */
+    public void subscribe(Flow.Subscriber<? super TickUpdate> subscriber) {
+        publisher.subscribe(subscriber);
+        joined.set(true);
+    }
+
+    /**
+     * @return Whether anybody is listening for updates
+     */
+    public boolean hasSubscribers() {
+        return publisher.hasSubscribers();
+    }
+
+    /**
+     * Sends the changes made to a world since the last call
+     * to every subscriber. This does nothing (and keeps nothing)
+     * while there are no subscribers.
+     * @param world World that has just been updated
+     * @param time Iteration the world is now at
+     */
+    public void publish(World world, int time) {
+        if (!publisher.hasSubscribers()) {
+            previous = null;
+            return;
+        }
+
+        int size = world.getSize();
+        byte[] current = new byte[size * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                current[i * size + j] = (byte) world.getBiome(i, j).ordinal();
+            }
+        }
+
+        boolean keyframe = joined.getAndSet(false)
+                || previous == null
+                || previous.length != current.length
+                || time - lastKeyframe >= keyframeInterval;
+
+        TickUpdate update;
+        if (keyframe) {
+            update = new TickUpdate(time, size, null, current.clone());
+            lastKeyframe = time;
+        } else {
+            int[] cells = new int[16];
+            byte[] biomes = new byte[16];
+            int changed = 0;
+            for (int c = 0; c < current.length; c++) {
+                if (current[c] != previous[c]) {
+                    if (changed == cells.length) {
+                        cells = Arrays.copyOf(cells, changed * 2);
+                        biomes = Arrays.copyOf(biomes, changed * 2);
+                    }
+                    cells[changed] = c;
+                    biomes[changed] = current[c];
+                    changed++;
+                }
+            }
+            update = new TickUpdate(time, size, Arrays.copyOf(cells, changed), Arrays.copyOf(biomes, changed));
+        }
+
+        previous = current;
+        publisher.submit(update);
+    }
+
+    /**
+     * Tells every subscriber that no more updates are coming.
+     */
+    @Override
+    public void close() {
+        publisher.close();
+    }
+}
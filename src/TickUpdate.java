@@ -0,0 +1,91 @@
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * The changes made to a world by one or more iterations of the
+ * automata rules, as handed to subscribers of a TickPublisher.
+ *
+ * An update is either a change set, listing only the cells whose
+ * biome changed since the previous update, or a keyframe listing
+ * every cell in the world. Cells are identified by their index
+ * i * size + j, and biomes are stored as ordinals to keep updates
+ * small.
+ */
+public class TickUpdate {
+    private static final Biome[] BIOMES = Biome.values();
+
+    private final int time;
+    private final int size;
+    private final int[] cells;
+    private final byte[] biomes;
+
+    /**
+     * @param time Iteration the world was at when the update was taken
+     * @param size Width (and height) of the world
+     * @param cells Indices of the changed cells, or null for a keyframe
+     * @param biomes Biome ordinal of each listed cell, or of every cell for a keyframe
+     */
+    public TickUpdate(int time, int size, int[] cells, byte[] biomes) {
+        this.time = time;
+        this.size = size;
+        this.cells = cells;
+        this.biomes = biomes;
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Whether this update holds every cell of the world
+     * rather than only the changed ones
+     */
+    public boolean isKeyframe() {
+        return cells == null;
+    }
+
+    /**
+     * @return Number of cells listed in this update
+     */
+    public int getCount() {
+        return biomes.length;
+    }
+
+    /**
+     * @param k Position in the update
+     * @return Index (i * size + j) of the k-th listed cell
+     */
+    public int getCell(int k) {
+        return cells == null ? k : cells[k];
+    }
+
+    /**
+     * @param k Position in the update
+     * @return New biome of the k-th listed cell
+     */
+    public Biome getBiome(int k) {
+        return BIOMES[biomes[k]];
+    }
+
+    /**
+     * Applies this update to a plane of biome ordinals
+     * kept by the subscriber.
+     * @param plane Biome ordinals of every cell, indexed by i * size + j
+     */
+    public void applyTo(byte[] plane) {
+        if (cells == null) {
+            System.arraycopy(biomes, 0, plane, 0, biomes.length);
+            return;
+        }
+        for (int k = 0; k < cells.length; k++) {
+            plane[cells[k]] = biomes[k];
+        }
+    }
+}
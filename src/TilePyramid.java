@@ -0,0 +1,249 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * Exports a world as a pyramid of square tiles in the usual
+ * z/x/y layout used by web map viewers, so that a large world
+ * can be browsed one small image at a time.
+ *
+ * The deepest zoom level draws one cell per pixel. Every level
+ * above it halves the resolution, taking the most common biome
+ * (and the average elevation) of each 2x2 block of cells from the
+ * level below, until the whole world fits into a single tile at
+ * zoom 0. Worlds whose size is not a power of two times the tile
+ * size are padded with empty (NONE) cells.
+ *
+ * The pyramid can be exported again after more iterations, in
+ * which case only the tiles whose cells changed since the last
+ * export are rendered and written.
+ */
+public class TilePyramid {
+    public static final int TILE_SIZE = 256;
+
+    private static final Biome[] BIOMES = Biome.values();
+    private static final byte NONE_ID = (byte) Biome.NONE.ordinal();
+
+    private final File root;
+    private final int tileSize;
+    private final ImageEncoder encoder = ImageEncoder.png(1);
+
+    private int worldSize = -1;
+    private int maxZoom;
+    private long[] tileHashes;
+    // Reduced planes for every zoom level above the deepest one
+    private byte[][] biomes;
+    private byte[][] elevations;
+
+    /**
+     * @param root Directory the z/x/y.png tiles are written into
+     */
+    public TilePyramid(File root) {
+        this(root, TILE_SIZE);
+    }
+
+    /**
+     * @param root Directory the z/x/y.png tiles are written into
+     * @param tileSize Width (and height) of a tile in pixels
+     */
+    public TilePyramid(File root, int tileSize) {
+        this.root = root;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @return Deepest zoom level of the last export
+     */
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    /**
+     * Renders the current state of a world into the pyramid,
+     * writing only the tiles that changed since the last export.
+     * The world must not be updated while this runs.
+     * @param world World to export
+     * @return Number of tiles written, across all zoom levels
+     */
+    public int export(World world) {
+        if (world.getSize() != worldSize) {
+            reset(world.getSize());
+        }
+
+        int tiles = 1 << maxZoom;
+        boolean[] changedCells = new boolean[tiles * tiles];
+        IntStream.range(0, tiles * tiles).parallel().forEach(t -> {
+            long hash = hashTile(world, t / tiles, t % tiles);
+            if (hash != tileHashes[t]) {
+                tileHashes[t] = hash;
+                changedCells[t] = true;
+            }
+        });
+
+        boolean[] dirty = changedCells;
+        int written = 0;
+        for (int z = maxZoom; z >= 0; z--) {
+            int side = 1 << z;
+            int zoom = z;
+            boolean[] level = dirty;
+            int[] changed = IntStream.range(0, side * side).filter(t -> level[t]).toArray();
+
+            Arrays.stream(changed).parallel().forEach(t -> {
+                int x = t / side;
+                int y = t % side;
+                if (zoom < maxZoom) {
+                    reduce(world, zoom, x, y);
+                }
+                write(render(world, zoom, x, y), zoom, x, y);
+            });
+            written += changed.length;
+
+            if (z > 0) {
+                // A tile is dirty if any of the four tiles below it are
+                int parentSide = side / 2;
+                boolean[] parents = new boolean[parentSide * parentSide];
+                for (int t : changed) {
+                    parents[(t / side / 2) * parentSide + (t % side) / 2] = true;
+                }
+                dirty = parents;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Lays out the pyramid for a world of the given size, forgetting
+     * anything exported before, so that every tile is written again.
+     */
+    private void reset(int size) {
+        worldSize = size;
+        maxZoom = 0;
+        while ((tileSize << maxZoom) < size) {
+            maxZoom++;
+        }
+
+        int tiles = 1 << maxZoom;
+        tileHashes = new long[tiles * tiles];
+        Arrays.fill(tileHashes, Long.MIN_VALUE);
+
+        biomes = new byte[maxZoom][];
+        elevations = new byte[maxZoom][];
+        for (int z = 0; z < maxZoom; z++) {
+            int side = tileSize << z;
+            biomes[z] = new byte[side * side];
+            elevations[z] = new byte[side * side];
+        }
+    }
+
+    /**
+     * Hashes the biomes and elevations of the cells
+     * covered by a tile at the deepest zoom level.
+     */
+    private long hashTile(World world, int x, int y) {
+        long hash = 17;
+        for (int i = x * tileSize; i < (x + 1) * tileSize; i++) {
+            for (int j = y * tileSize; j < (y + 1) * tileSize; j++) {
+                hash = hash * 31 + biomeAt(world, maxZoom, i, j);
+                hash = hash * 31 + elevationAt(world, maxZoom, i, j);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return Biome ordinal at a pixel of the given zoom level
+     */
+    private byte biomeAt(World world, int z, int i, int j) {
+        if (z < maxZoom) {
+            return biomes[z][i * (tileSize << z) + j];
+        }
+        if (i >= worldSize || j >= worldSize) {
+            return NONE_ID;
+        }
+        return (byte) world.getBiome(i, j).ordinal();
+    }
+
+    /**
+     * @return Elevation (0 to 255) at a pixel of the given zoom level
+     */
+    private int elevationAt(World world, int z, int i, int j) {
+        if (z < maxZoom) {
+            return elevations[z][i * (tileSize << z) + j] & 0xFF;
+        }
+        if (i >= worldSize || j >= worldSize) {
+            return 0;
+        }
+        return PackedGrid.quantize(world.getElevation(i, j)) & 0xFF;
+    }
+
+    /**
+     * Recomputes the part of a reduced zoom level covered by
+     * one tile from the 2x2 blocks of the level below it.
+     */
+    private void reduce(World world, int z, int x, int y) {
+        int side = tileSize << z;
+        for (int i = x * tileSize; i < (x + 1) * tileSize; i++) {
+            for (int j = y * tileSize; j < (y + 1) * tileSize; j++) {
+                int ci = 2 * i;
+                int cj = 2 * j;
+                biomes[z][i * side + j] = majority(
+                        biomeAt(world, z + 1, ci, cj),
+                        biomeAt(world, z + 1, ci + 1, cj),
+                        biomeAt(world, z + 1, ci, cj + 1),
+                        biomeAt(world, z + 1, ci + 1, cj + 1));
+                elevations[z][i * side + j] = (byte) ((
+                        elevationAt(world, z + 1, ci, cj)
+                        + elevationAt(world, z + 1, ci + 1, cj)
+                        + elevationAt(world, z + 1, ci, cj + 1)
+                        + elevationAt(world, z + 1, ci + 1, cj + 1)) / 4);
+            }
+        }
+    }
+
+    /**
+     * @return The most common of four biomes, favoring
+     * the earliest one when two of them are tied
+     */
+    static byte majority(byte a, byte b, byte c, byte d) {
+        if (a == b || a == c || a == d) {
+            return a;
+        }
+        if (b == c || b == d) {
+            return b;
+        }
+        if (c == d) {
+            return c;
+        }
+        return a;
+    }
+
+    private BufferedImage render(World world, int z, int x, int y) {
+        BufferedImage tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < tileSize; i++) {
+            for (int j = 0; j < tileSize; j++) {
+                Biome b = BIOMES[biomeAt(world, z, x * tileSize + i, y * tileSize + j)];
+                int elevation = elevationAt(world, z, x * tileSize + i, y * tileSize + j);
+                tile.setRGB(i, j, Draw.colorOf(b, elevation).getRGB());
+            }
+        }
+        return tile;
+    }
+
+    private void write(BufferedImage tile, int z, int x, int y) {
+        File dir = new File(root, z + File.separator + x);
+        dir.mkdirs();
+        try {
+            encoder.write(tile, new File(dir, y + ".png").toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
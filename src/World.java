@@ -0,0 +1,99 @@
+import java.util.concurrent.Flow;
+
+/**
+ * @author Duncan Grubbs
+ * @date 2020-04-13
+ * @license MIT
+ */
+
+/**
+ * A square world of cells that can be stepped through the
+ * cellular automata rules. This is what the drawing and
+ * output utilities read from, so that they do not depend on
+ * how a particular engine stores its cells.
+ *
+ * A world should be closed once the simulation is over, which
+ * tells its subscribers that no more updates are coming.
+ */
+public interface World extends AutoCloseable {
+    /**
+     * @return Width (and height) of the world in cells
+     */
+    int getSize();
+
+    /**
+     * @param i Row in the grid
+     * @param j Column in the grid
+     * @return Current biome of the cell
+     */
+    Biome getBiome(int i, int j);
+
+    /**
+     * @param i Row in the grid
+     * @param j Column in the grid
+     * @return Elevation of the cell, in the range [0, 255]. Engines
+     * other than CellGrid may only keep it to byte precision, so it
+     * is meant for drawing rather than for applying the rules to.
+     */
+    double getElevation(int i, int j);
+
+    /**
+     * Works out which terrain planes (see PackedGrid) a cell belongs
+     * to. By default this classifies the cell from its elevation and
+     * those of its neighbors. Engines that keep elevation only to byte
+     * precision override it with the classes they worked out from the
+     * full elevation, which rounding could change.
+     * @param i Row in the grid
+     * @param j Column in the grid
+     * @return Bit mask with bit t set for every terrain plane t
+     * the cell belongs to, or 0 for a cell on the border
+     */
+    default int getTerrainClass(int i, int j) {
+        int size = getSize();
+        if (i == 0 || j == 0 || i == size-1 || j == size-1) {
+            return 0;
+        }
+        return PackedGrid.classify(getElevation(i, j),
+                getElevation(i-1, j),
+                getElevation(i+1, j),
+                getElevation(i, j-1),
+                getElevation(i, j+1));
+    }
+
+    /**
+     * @return Number of iterations the world has been advanced by,
+     * including those of any world it was built from
+     */
+    int getTime();
+
+    /**
+     * Advances every cell in the world by one iteration
+     * of the automata rules.
+     */
+    void update();
+
+    /**
+     * Advances every cell in the world by a number of iterations.
+     * Engines that can do this faster than one iteration at a
+     * time override it.
+     * @param iterations Number of iterations of the automata rules
+     */
+    default void update(int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            update();
+        }
+    }
+
+    /**
+     * Registers a consumer of the changes made by each update.
+     * @param subscriber Consumer of the updates, see TickPublisher
+     */
+    void subscribe(Flow.Subscriber<? super TickUpdate> subscriber);
+
+    /**
+     * Completes every subscription and releases anything
+     * else the engine holds on to.
+     */
+    @Override
+    void close();
+}